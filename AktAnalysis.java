@@ -1,10 +1,12 @@
 package soot.jimple.infoflow;
 
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import soot.SootClass;
+import soot.Local;
 import soot.SootMethod;
 import soot.Unit;
 import soot.Value;
@@ -12,11 +14,15 @@ import soot.ValueBox;
 import soot.jimple.AssignStmt;
 import soot.jimple.IfStmt;
 import soot.jimple.InvokeExpr;
+import soot.jimple.ReturnStmt;
+import soot.jimple.Stmt;
 import soot.jimple.StringConstant;
 import soot.jimple.internal.AbstractBinopExpr;
 import soot.jimple.internal.JEqExpr;
 import soot.jimple.internal.JNeExpr;
 import soot.toolkits.graph.UnitGraph;
+import soot.toolkits.scalar.LiveLocals;
+import soot.toolkits.scalar.SimpleLiveLocals;
 import soot.jimple.infoflow.AktFlowProcessor;
 import soot.jimple.infoflow.AktSet;
 import soot.jimple.infoflow.AktSet.Comparison;
@@ -24,14 +30,183 @@ import soot.jimple.infoflow.AndroidFlowProcessor;
 import soot.jimple.infoflow.Debug;
 import soot.jimple.infoflow.JimpleAnalysis;
 
-public class AktAnalysis extends JimpleAnalysis {
+public class AktAnalysis extends JimpleAnalysis<AktSet> {
 
 	private AktFlowProcessor fp;
 
+	// Keys of the locals that are dead after a unit, only units that kill
+	// at least one local are contained
+	private final Map<Unit, int[]> deadAfter = new HashMap<Unit, int[]>();
+
+	// Shared by all flow sets of this body
+	private final AktBodyIndex bodyIndex = new AktBodyIndex();
+
+	// Summaries of the callees, or null to analyze the method in isolation
+	private final AktSummaries summaries;
+
+	// Resolved callees of the invocations in the body, or null to resolve
+	// them on demand
+	private final Map<Unit, SootMethod> callees;
+
 	public AktAnalysis(UnitGraph graph) {
+		this(graph, null);
+	}
+
+	/**
+	 * Creates a new analysis that applies the given callee summaries at call
+	 * sites
+	 * 
+	 * @param graph
+	 *            The graph of the body to analyze
+	 * @param summaries
+	 *            The summaries of the callees, or null to analyze the body
+	 *            without taking callees into account
+	 */
+	public AktAnalysis(UnitGraph graph, AktSummaries summaries) {
+		this(graph, summaries, null);
+	}
+
+	/**
+	 * Creates a new analysis that looks up the callees of the invocations in
+	 * the given map instead of resolving them. Method resolution may add
+	 * phantom methods to the Scene, so analyses that run concurrently must
+	 * get their callees resolved up front.
+	 * 
+	 * @param graph
+	 *            The graph of the body to analyze
+	 * @param summaries
+	 *            The summaries of the callees, or null to analyze the body
+	 *            without taking callees into account
+	 * @param callees
+	 *            The callee of every invocation statement in the body, or
+	 *            null to resolve the callees on demand
+	 */
+	public AktAnalysis(UnitGraph graph, AktSummaries summaries,
+			Map<Unit, SootMethod> callees) {
 		super(graph);
-		fp = new AndroidFlowProcessor();
+		fp = AndroidFlowProcessor.v();
+		this.summaries = summaries;
+		this.callees = callees;
+		computeDeadLocals(graph);
 		doAnalysis();
+		recordConditions();
+	}
+
+	@Override
+	protected AktSet newInitialFlow() {
+		// Units are unreachable until a predecessor has been processed
+		AktSet set = new AktSet(bodyIndex);
+		set.setCondition(Condition.FALSE);
+		return set;
+	}
+
+	@Override
+	protected AktSet entryInitialFlow() {
+		return new AktSet(bodyIndex);
+	}
+
+	/**
+	 * Records the branch condition of every unit in the annotation store.
+	 * Must only be called once the fixpoint has been reached, so that every
+	 * unit is annotated exactly once with its final condition.
+	 */
+	private void recordConditions() {
+		AktAnnotations annotations = AktAnnotations.v();
+		for (Unit u : graph) {
+			Condition cond = getFlowBefore(u).getCondition();
+			if (!cond.isTrue() && !cond.isFalse())
+				annotations.putCondition(u, cond);
+		}
+	}
+
+	/**
+	 * Computes the summary of the analyzed method. A fact is only part of the
+	 * summary if it holds for the returned value on all reachable returns.
+	 * 
+	 * @return The summary of the analyzed method
+	 */
+	public AktSummary getSummary() {
+		String property = null;
+		Value constant = null;
+		Comparison cmp = null;
+		boolean first = true;
+		for (Unit u : graph) {
+			if (!(u instanceof ReturnStmt))
+				continue;
+			AktSet in = getFlowBefore(u);
+			if (in.getCondition().isFalse())
+				continue;
+
+			Value op = ((ReturnStmt) u).getOp();
+			String retProperty = in.getIntentProperty(op);
+			Value retConstant = op instanceof StringConstant ? op : in
+					.getStringConstant(op);
+			Comparison retCmp = in.getIntentPropertyCmp(op);
+			if (retCmp != null && !retCmp.isConstantComp)
+				retCmp = null;
+
+			if (first) {
+				property = retProperty;
+				constant = retConstant;
+				cmp = retCmp;
+				first = false;
+			} else {
+				if (property != null && !property.equals(retProperty))
+					property = null;
+				if (constant != null && !constant.equals(retConstant))
+					constant = null;
+				if (cmp != null && !cmp.equals(retCmp))
+					cmp = null;
+			}
+		}
+		return new AktSummary(property, constant, cmp);
+	}
+
+	/**
+	 * Computes the locals whose entries can be dropped after each unit. A
+	 * local is dead after a unit if it is live before the unit or defined by
+	 * it, but not live after it. Nothing reads the facts of such a local
+	 * anymore, so the flow sets only need to track the live state.
+	 * 
+	 * @param graph
+	 *            The graph of the body to analyze
+	 */
+	private void computeDeadLocals(UnitGraph graph) {
+		// The liveness analysis only reads the graph and the use and def
+		// boxes of its units. It neither resolves methods nor queries the
+		// Scene or the class hierarchy, so it may run on the tagger's worker
+		// threads.
+		LiveLocals live = new SimpleLiveLocals(graph);
+		for (Unit u : graph) {
+			List<Local> after = live.getLiveLocalsAfter(u);
+			Set<Local> dead = new HashSet<Local>(live.getLiveLocalsBefore(u));
+			for (ValueBox vb : u.getDefBoxes())
+				if (vb.getValue() instanceof Local)
+					dead.add((Local) vb.getValue());
+			dead.removeAll(after);
+			if (dead.isEmpty())
+				continue;
+
+			int[] keys = new int[dead.size()];
+			int i = 0;
+			for (Local l : dead)
+				keys[i++] = bodyIndex.keyOf(l);
+			deadAfter.put(u, keys);
+		}
+	}
+
+	@Override
+	protected void flowThrough(AktSet in, Unit stmt, List<AktSet> fallOut,
+			List<AktSet> branchOuts) {
+		super.flowThrough(in, stmt, fallOut, branchOuts);
+
+		int[] dead = deadAfter.get(stmt);
+		if (dead == null)
+			return;
+		for (AktSet s : fallOut)
+			s.removeKeys(dead);
+		for (AktSet s : branchOuts)
+			s.removeKeys(dead);
 	}
 
 	@Override
@@ -43,20 +218,20 @@ public class AktAnalysis extends JimpleAnalysis {
 
 		if (out.isIntentProperty(right)) {
 			out.addIntentPropertyAlias(left, right);
-			Debug.debugInfo("[AKTION][INTENTALIAS] " + stmt);
+			log("INTENTALIAS", stmt);
 		} else if (out.isStringConstant(right)) {
 			out.addStringConstantAlias(left, right);
-			Debug.debugInfo("[AKTION][STRALIAS] " + stmt);
+			log("STRALIAS", stmt);
 		} else if (right instanceof StringConstant) {
 			out.addStringConstant(left, right);
-			Debug.debugInfo("[AKTION][STRSRC] " + stmt);
+			log("STRSRC", stmt);
 		} else if (stmt.containsInvokeExpr()) {
 			InvokeExpr ie = stmt.getInvokeExpr();
-			SootMethod sm = ie.getMethod();
+			SootMethod sm = getCallee(stmt);
 			if (fp.isIntentPropertyGetter(sm)) {
-				out.addIntentProperty(left, ie);
-				Debug.debugInfo("[AKTION][INTENTSRC] " + stmt);
-			} else if (isStringEquals(sm)) {
+				out.addIntentProperty(left, sm.getName());
+				log("INTENTSRC", stmt);
+			} else if (fp.isStringComparison(sm)) {
 				Set<ValueBox> boxes = new HashSet<ValueBox>(ie.getUseBoxes());
 				ValueBox argBox = ie.getArgBox(0);
 				boxes.remove(argBox);
@@ -67,6 +242,12 @@ public class AktAnalysis extends JimpleAnalysis {
 					break;
 				}
 				out.processComparison(left, arg, caller);
+			} else if (summaries != null) {
+				AktSummary summary = summaries.get(sm);
+				if (summary != null) {
+					summary.apply(out, left);
+					log("SUMMARY", stmt);
+				}
 			}
 		}
 	}
@@ -77,40 +258,75 @@ public class AktAnalysis extends JimpleAnalysis {
 
 		if (cond instanceof JEqExpr || cond instanceof JNeExpr) {
 			AbstractBinopExpr eq = (AbstractBinopExpr) cond;
-			Value left = eq.getOp1();
-			Value right = eq.getOp2();
-			Comparison<Value, Value> cmp;
-			String op = cond instanceof JEqExpr ? "==" : "!=";
-			String opNeg = cond instanceof JEqExpr ? "!=" : "==";
+			final Value left = eq.getOp1();
+			final Value right = eq.getOp2();
+			boolean isEq = cond instanceof JEqExpr;
+			final String op = isEq ? "==" : "!=";
 			
 			if (in.isIntentPropertyCmp(left)) {
-				Debug.debugInfo("[AKTION][BRANCH] " + stmt);
-				cmp = in.getIntentPropertyCmp(left);
-				String expr = String.format("E(%s, %s) %s %s;", fmt(cmp.x),
-						fmt(cmp.y), op, fmt(right));
-				String exprNeg = String.format("E(%s, %s) %s %s;", fmt(cmp.x),
-						fmt(cmp.y), opNeg, fmt(right));
-				System.out.println(expr);
-				fallOut.get(0).booleanExpression += exprNeg;
-				branchOuts.get(0).booleanExpression += expr;
+				log("BRANCH", stmt);
+				Comparison cmp = in.getIntentPropertyCmp(left);
+				Condition.Atom atom = Condition.atom(cmp.x, fmt(cmp.y),
+						fmt(right));
+				log("COND", atom.literal(isEq));
+				fallOut.get(0).setCondition(in.getCondition().and(
+						atom.literal(!isEq)));
+				branchOuts.get(0).setCondition(in.getCondition().and(
+						atom.literal(isEq)));
 			} else if (in.isIntentPropertyCmp(right)) {
-				cmp = in.getIntentPropertyCmp(right);
-				System.out.printf("E(%s, %s, %s) %s %s\n", fmt(cmp.x),
-						fmt(cmp.y), cmp.isConstantComp, op, fmt(left));
+				final Comparison cmp = in.getIntentPropertyCmp(right);
+				Debug.debugInfo(new Debug.MessageSupplier() {
+
+					@Override
+					public String get() {
+						return String.format("E(%s, %s, %s) %s %s", cmp.x,
+								fmt(cmp.y), cmp.isConstantComp, op, fmt(left));
+					}
+
+				});
 			} else if (in.isIntentProperty(left)) {
-				Value ip = in.getIntentProperty(left);
-				System.out.printf("%s %s %s\n", fmt(ip), op, fmt(right));
+				final String ip = in.getIntentProperty(left);
+				Debug.debugInfo(new Debug.MessageSupplier() {
+
+					@Override
+					public String get() {
+						return String.format("%s %s %s", ip, op, fmt(right));
+					}
+
+				});
 			} else if (in.isIntentProperty(right)) {
-				Value ip = in.getIntentProperty(right);
-				System.out.printf("%s %s %s\n", fmt(ip), op, fmt(left));
+				final String ip = in.getIntentProperty(right);
+				Debug.debugInfo(new Debug.MessageSupplier() {
+
+					@Override
+					public String get() {
+						return String.format("%s %s %s", ip, op, fmt(left));
+					}
+
+				});
 			}
 		}
 	}
 
+	/**
+	 * Records an analysis event in the trace and prints it if info output is
+	 * enabled. Does not format anything if both are disabled.
+	 */
+	private static void log(String event, Object subject) {
+		Debug.trace(event, subject);
+		if (Debug.isInfoEnabled())
+			Debug.debugInfo("[AKTION][" + event + "] " + subject);
+	}
+
+	private SootMethod getCallee(Stmt stmt) {
+		return callees != null ? callees.get(stmt) : stmt.getInvokeExpr()
+				.getMethod();
+	}
+
 	private String fmt(Value val) {
 		if (val instanceof InvokeExpr) {
 			InvokeExpr ie = (InvokeExpr) val;
-			String method = ie.getMethod().getName();
+			String method = ie.getMethodRef().name();
 
 			String argStr = "";
 			boolean first = true;
@@ -134,16 +350,4 @@ public class AktAnalysis extends JimpleAnalysis {
 			return val.toString();
 		}
 	}
-
-	private boolean isStringEquals(SootMethod sm) {
-		SootClass sc = sm.getDeclaringClass();
-		String className = sc.getName();
-		String methodName = sm.getName();
-		if (className.equals("java.lang.String")) {
-			if (methodName.equals("equals")) {
-				return true;
-			}
-		}
-		return false;
-	}
 }
@@ -0,0 +1,360 @@
+package soot.jimple.infoflow;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import soot.Body;
+import soot.SootMethod;
+import soot.Trap;
+import soot.Unit;
+import soot.UnitBox;
+import soot.Value;
+import soot.jimple.Stmt;
+import soot.jimple.StringConstant;
+import soot.jimple.infoflow.AktSet.Comparison;
+import soot.jimple.infoflow.Condition.Literal;
+
+/**
+ * On-disk cache of the results of the {@link AktAnalysis}. Entries are keyed
+ * by a hash of the Jimple text of the method body, so a body that did not
+ * change since the last run is not analyzed again. Its conditions and its
+ * summary are read from the cache instead.
+ */
+public class AktAnalysisCache {
+
+	/**
+	 * Version of the file format and of the analysis. Must be increased
+	 * whenever a change to the file format or to the semantics of the
+	 * analysis changes its results. Changes to the flow processor rules are
+	 * covered by the key already.
+	 */
+	private static final int VERSION = 2;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(AktAnalysisCache.class);
+
+	private final File directory;
+
+	/**
+	 * Result of the analysis of a single method body as stored in the cache
+	 */
+	public static class Entry {
+		private final Condition[] conditions;
+		private final AktSummary summary;
+
+		public Entry(Condition[] conditions, AktSummary summary) {
+			this.conditions = conditions;
+			this.summary = summary;
+		}
+
+		/**
+		 * Gets the conditions of the units of the body
+		 *
+		 * @return The conditions, indexed by the position of the unit in the
+		 *         body. Units reached unconditionally have no condition.
+		 */
+		public Condition[] getConditions() {
+			return conditions;
+		}
+
+		/**
+		 * Gets the summary of the method
+		 *
+		 * @return The summary of the method, or null if it was analyzed
+		 *         without summaries
+		 */
+		public AktSummary getSummary() {
+			return summary;
+		}
+	}
+
+	/**
+	 * Creates a new cache that stores its entries in the given directory
+	 *
+	 * @param directory
+	 *            The directory in which to store the cache entries. It is
+	 *            created if it does not exist.
+	 */
+	public AktAnalysisCache(File directory) {
+		this.directory = directory;
+		if (!directory.exists() && !directory.mkdirs())
+			logger.warn("Could not create cache directory {}", directory);
+	}
+
+	/**
+	 * Computes the cache key of the given body. The key covers the Jimple text
+	 * of all units, the targets of all jumps, the traps, the rules of the flow
+	 * processor and, if summaries are used, the summaries of the callees, as
+	 * they influence the result as well.
+	 *
+	 * @param b
+	 *            The body for which to compute the key
+	 * @param summaries
+	 *            The summaries of the callees, or null if summaries are not
+	 *            used
+	 * @return The cache key of the body
+	 */
+	public String computeKey(Body b, AktSummaries summaries) {
+		return computeKey(b, summaries, null);
+	}
+
+	/**
+	 * Computes the cache key of the given body, looking up the callees whose
+	 * summaries are part of the key in the given map instead of resolving
+	 * them
+	 *
+	 * @param b
+	 *            The body for which to compute the key
+	 * @param summaries
+	 *            The summaries of the callees, or null if summaries are not
+	 *            used
+	 * @param callees
+	 *            The callee of every invocation statement in the body, or
+	 *            null to resolve the callees on demand
+	 * @return The cache key of the body
+	 */
+	public String computeKey(Body b, AktSummaries summaries,
+			Map<Unit, SootMethod> callees) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		md.update((VERSION + "\n" + (summaries != null) + "\n").getBytes(UTF8));
+		md.update((AndroidFlowProcessor.v().getRulesDigest() + "\n")
+				.getBytes(UTF8));
+		md.update(b.getMethod().getSignature().getBytes(UTF8));
+
+		// The printed form of a jump does not say which unit it jumps to, so
+		// targets are hashed by their position in the body
+		Map<Unit, Integer> index = new IdentityHashMap<Unit, Integer>();
+		for (Unit u : b.getUnits())
+			index.put(u, index.size());
+
+		for (Unit u : b.getUnits()) {
+			md.update((byte) '\n');
+			md.update(u.toString().getBytes(UTF8));
+			for (UnitBox box : u.getUnitBoxes())
+				md.update((" #target " + index.get(box.getUnit()))
+						.getBytes(UTF8));
+			if (summaries != null && ((Stmt) u).containsInvokeExpr()) {
+				SootMethod callee = callees != null ? callees.get(u)
+						: ((Stmt) u).getInvokeExpr().getMethod();
+				AktSummary summary = summaries.get(callee);
+				if (summary != null)
+					md.update(describe(summary).getBytes(UTF8));
+			}
+		}
+
+		for (Trap t : b.getTraps())
+			md.update(("\n#trap " + index.get(t.getBeginUnit()) + " "
+					+ index.get(t.getEndUnit()) + " "
+					+ index.get(t.getHandlerUnit()) + " "
+					+ t.getException().getName()).getBytes(UTF8));
+
+		StringBuilder sb = new StringBuilder();
+		for (byte by : md.digest())
+			sb.append(String.format("%02x", by));
+		return sb.toString();
+	}
+
+	private static String describe(AktSummary summary) {
+		Comparison cmp = summary.getReturnComparison();
+		return " #summary " + summary.getReturnProperty() + " "
+				+ summary.getReturnConstant() + " "
+				+ (cmp == null ? null : cmp.x + " " + cmp.y);
+	}
+
+	/**
+	 * Loads the cache entry with the given key
+	 *
+	 * @param key
+	 *            The key of the entry, as computed by
+	 *            {@link #computeKey(Body, AktSummaries)}
+	 * @param numUnits
+	 *            The number of units in the body
+	 * @return The cache entry, or null if there is no valid entry for the key
+	 */
+	public Entry load(String key, int numUnits) {
+		File file = new File(directory, key + ".akt");
+		if (!file.exists())
+			return null;
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			if (in.readInt() != VERSION || in.readInt() != numUnits)
+				return null;
+
+			Condition[] conditions = new Condition[numUnits];
+			int numEntries = in.readInt();
+			for (int i = 0; i < numEntries; i++) {
+				int idx = in.readInt();
+				if (idx < 0 || idx >= numUnits)
+					return null;
+				conditions[idx] = readCondition(in);
+			}
+
+			AktSummary summary = null;
+			if (in.readBoolean()) {
+				String property = readString(in);
+				String constant = readString(in);
+				String cmpProperty = readString(in);
+				String cmpConstant = readString(in);
+				summary = new AktSummary(property,
+						constant == null ? null : StringConstant.v(constant),
+						cmpProperty == null ? null : new Comparison(
+								cmpProperty, StringConstant.v(cmpConstant),
+								true));
+			}
+			return new Entry(conditions, summary);
+		} catch (IOException ex) {
+			logger.warn("Could not read cache entry " + file, ex);
+			return null;
+		} finally {
+			if (in != null)
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+		}
+	}
+
+	/**
+	 * Stores a cache entry under the given key. The entry is written to a
+	 * temporary file first, so that concurrent readers never see a partial
+	 * entry.
+	 *
+	 * @param key
+	 *            The key of the entry, as computed by
+	 *            {@link #computeKey(Body, AktSummaries)}
+	 * @param entry
+	 *            The entry to store
+	 */
+	public void store(String key, Entry entry) {
+		File tmpFile = new File(directory, key + "."
+				+ Thread.currentThread().getId() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(tmpFile)));
+			Condition[] conditions = entry.getConditions();
+			out.writeInt(VERSION);
+			out.writeInt(conditions.length);
+
+			int numEntries = 0;
+			for (Condition cond : conditions)
+				if (cond != null)
+					numEntries++;
+			out.writeInt(numEntries);
+			for (int i = 0; i < conditions.length; i++) {
+				if (conditions[i] == null)
+					continue;
+				out.writeInt(i);
+				writeCondition(out, conditions[i]);
+			}
+
+			AktSummary summary = entry.getSummary();
+			out.writeBoolean(summary != null);
+			if (summary != null) {
+				Comparison cmp = summary.getReturnComparison();
+				writeString(out, summary.getReturnProperty());
+				writeString(out, constantValue(summary.getReturnConstant()));
+				String cmpConstant = cmp == null ? null : constantValue(cmp.y);
+				writeString(out, cmpConstant == null ? null : cmp.x);
+				writeString(out, cmpConstant);
+			}
+			out.close();
+			out = null;
+
+			File file = new File(directory, key + ".akt");
+			if (!tmpFile.renameTo(file)) {
+				file.delete();
+				if (!tmpFile.renameTo(file))
+					tmpFile.delete();
+			}
+		} catch (IOException ex) {
+			logger.warn("Could not write cache entry " + key, ex);
+			tmpFile.delete();
+		} finally {
+			if (out != null)
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+		}
+	}
+
+	private static String constantValue(Value val) {
+		return val instanceof StringConstant ? ((StringConstant) val).value
+				: null;
+	}
+
+	private static void writeCondition(DataOutputStream out, Condition cond)
+			throws IOException {
+		List<List<Literal>> dnf = cond.toDNF();
+		out.writeInt(dnf.size());
+		for (List<Literal> conj : dnf) {
+			out.writeInt(conj.size());
+			for (Literal lit : conj) {
+				out.writeBoolean(lit.isPositive());
+				out.writeUTF(lit.getAtom().getProperty());
+				out.writeUTF(lit.getAtom().getConstant());
+				out.writeUTF(lit.getAtom().getValue());
+			}
+		}
+	}
+
+	private static Condition readCondition(DataInputStream in)
+			throws IOException {
+		// The paths of the diagram are disjoint, so rebuilding the disjunction
+		// yields the same condition
+		Condition cond = Condition.FALSE;
+		int numConjs = in.readInt();
+		for (int i = 0; i < numConjs; i++) {
+			Condition conj = Condition.TRUE;
+			int numLits = in.readInt();
+			for (int j = 0; j < numLits; j++) {
+				boolean positive = in.readBoolean();
+				String property = in.readUTF();
+				String constant = in.readUTF();
+				String value = in.readUTF();
+				conj = conj.and(Condition.atom(property, constant, value)
+						.literal(positive));
+			}
+			cond = cond.or(conj);
+		}
+		return cond;
+	}
+
+	private static void writeString(DataOutputStream out, String str)
+			throws IOException {
+		out.writeBoolean(str != null);
+		if (str != null)
+			out.writeUTF(str);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+}
@@ -0,0 +1,86 @@
+package soot.jimple.infoflow;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import soot.Unit;
+
+/**
+ * Side table holding the metadata the analyses attach to units, i.e. the
+ * branch condition under which a unit is reached and the intent ID of intent
+ * sinks. Each unit has at most one entry per kind, so revisiting a unit
+ * replaces its entry instead of adding another tag, and storing an unchanged
+ * value does not allocate.
+ */
+public class AktAnnotations {
+
+	private static AktAnnotations instance = new AktAnnotations();
+
+	private final Map<Unit, Condition> conditions = new ConcurrentHashMap<Unit, Condition>();
+	private final Map<Unit, String> intentIDs = new ConcurrentHashMap<Unit, String>();
+
+	private AktAnnotations() {
+	}
+
+	public static AktAnnotations v() {
+		return instance;
+	}
+
+	/**
+	 * Drops all annotations. Must be called whenever Soot is reset, as the
+	 * annotated units are gone afterwards.
+	 */
+	public static void reset() {
+		instance = new AktAnnotations();
+	}
+
+	/**
+	 * Records the branch condition under which the given unit is reached
+	 *
+	 * @param unit
+	 *            The unit to annotate
+	 * @param condition
+	 *            The condition under which the unit is reached
+	 */
+	public void putCondition(Unit unit, Condition condition) {
+		if (conditions.get(unit) != condition)
+			conditions.put(unit, condition);
+	}
+
+	/**
+	 * Gets the branch condition under which the given unit is reached
+	 *
+	 * @param unit
+	 *            The unit for which to get the condition
+	 * @return The condition, or null if the unit is reached unconditionally
+	 *         or has not been analyzed
+	 */
+	public Condition getCondition(Unit unit) {
+		return conditions.get(unit);
+	}
+
+	/**
+	 * Records the intent ID of the given intent sink
+	 *
+	 * @param unit
+	 *            The intent sink
+	 * @param intentID
+	 *            The ID of the intent sent by the sink
+	 */
+	public void putIntentID(Unit unit, String intentID) {
+		if (!intentID.equals(intentIDs.get(unit)))
+			intentIDs.put(unit, intentID);
+	}
+
+	/**
+	 * Gets the intent ID of the given intent sink
+	 *
+	 * @param unit
+	 *            The intent sink
+	 * @return The intent ID, or null if none was recorded for the unit
+	 */
+	public String getIntentID(Unit unit) {
+		return intentIDs.get(unit);
+	}
+
+}
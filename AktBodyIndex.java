@@ -0,0 +1,105 @@
+package soot.jimple.infoflow;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import soot.Local;
+import soot.Value;
+import soot.jimple.infoflow.AktSet.Comparison;
+
+/**
+ * Per-body state shared by all {@link AktSet}s of one analysis. Maps the
+ * values used as keys in the sets to ints and pools the comparisons, so that
+ * the sets neither hash values nor allocate comparison tuples on the hot path.
+ */
+public class AktBodyIndex {
+
+	// Keys for values other than locals are negative, locals use their
+	// (non-negative) Soot number
+	private final Map<Value, Integer> otherKeys = new IdentityHashMap<Value, Integer>();
+
+	/**
+	 * Key that is never assigned to any value
+	 */
+	public static final int NO_KEY = Integer.MIN_VALUE;
+
+	private Comparison[] pool = new Comparison[64];
+	private int poolSize = 0;
+
+	/**
+	 * Gets the int key for the given value
+	 *
+	 * @param val
+	 *            The value for which to get the key
+	 * @return The key of the value
+	 */
+	public int keyOf(Value val) {
+		if (val instanceof Local)
+			return ((Local) val).getNumber();
+		Integer key = otherKeys.get(val);
+		if (key == null) {
+			key = -1 - otherKeys.size();
+			otherKeys.put(val, key);
+		}
+		return key;
+	}
+
+	/**
+	 * Gets the int key for the given value without assigning a new key
+	 *
+	 * @param val
+	 *            The value for which to get the key
+	 * @return The key of the value, or NO_KEY if the value has never been
+	 *         used as a key
+	 */
+	public int lookupKey(Value val) {
+		if (val instanceof Local)
+			return ((Local) val).getNumber();
+		Integer key = otherKeys.get(val);
+		return key == null ? NO_KEY : key;
+	}
+
+	/**
+	 * Gets the pooled comparison of the given intent property with the given
+	 * operand. Looking up an existing comparison does not allocate.
+	 *
+	 * @param property
+	 *            The intent property being compared
+	 * @param operand
+	 *            The value the property is compared with
+	 * @param isConstantComp
+	 *            True if the operand is a string constant
+	 * @return The pooled comparison
+	 */
+	public Comparison comparison(String property, Value operand,
+			boolean isConstantComp) {
+		int mask = pool.length - 1;
+		int idx = Comparison.hash(property, operand, isConstantComp) & mask;
+		Comparison cmp;
+		while ((cmp = pool[idx]) != null) {
+			if (cmp.matches(property, operand, isConstantComp))
+				return cmp;
+			idx = (idx + 1) & mask;
+		}
+		cmp = new Comparison(property, operand, isConstantComp);
+		pool[idx] = cmp;
+		if (++poolSize * 2 > pool.length)
+			growPool();
+		return cmp;
+	}
+
+	private void growPool() {
+		Comparison[] oldPool = pool;
+		pool = new Comparison[oldPool.length * 2];
+		int mask = pool.length - 1;
+		for (Comparison cmp : oldPool) {
+			if (cmp == null)
+				continue;
+			int idx = cmp.hashCode() & mask;
+			while (pool[idx] != null)
+				idx = (idx + 1) & mask;
+			pool[idx] = cmp;
+		}
+	}
+
+}
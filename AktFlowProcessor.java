@@ -6,4 +6,6 @@ public abstract class AktFlowProcessor {
 	public abstract boolean isIntentPropertyGetter(SootMethod sm);
 
 	public abstract boolean isIntentSource(SootMethod sm);
+
+	public abstract boolean isStringComparison(SootMethod sm);
 }
@@ -1,149 +1,272 @@
 package soot.jimple.infoflow;
 
-import java.util.HashMap;
-import java.util.List;
-
 import soot.Value;
 import soot.jimple.StringConstant;
 import soot.jimple.internal.JInstanceFieldRef;
 
-public class AktSet {
-	public class Comparison<X, Y> {
-		public final X x;
-		public final Y y;
-		public boolean isConstantComp;
+public class AktSet implements JimpleLattice<AktSet> {
+	public static final class Comparison {
+		public final String x;
+		public final Value y;
+		public final boolean isConstantComp;
 
-		public Comparison(X x, Y y, boolean b) {
+		Comparison(String x, Value y, boolean b) {
 			this.x = x;
 			this.y = y;
 			this.isConstantComp = b;
 		}
+
+		static int hash(String x, Value y, boolean b) {
+			return (x.hashCode() * 31 + (y == null ? 0 : y.hashCode())) * 31
+					+ (b ? 1 : 0);
+		}
+
+		boolean matches(String x, Value y, boolean b) {
+			return isConstantComp == b && this.x.equals(x)
+					&& (this.y == y || (this.y != null && this.y.equals(y)));
+		}
+
+		@Override
+		public int hashCode() {
+			return hash(x, y, isConstantComp);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Comparison))
+				return false;
+			Comparison other = (Comparison) obj;
+			return other.matches(x, y, isConstantComp);
+		}
 	}
 
-	String booleanExpression;
-	HashMap<Value, Value> intentProps;
-	HashMap<Value, Value> strConsts;
-	HashMap<Value, Comparison<Value, Value>> intentPropCmps;
+	private final AktBodyIndex index;
+
+	private Condition condition;
+
+	// The tables are persistent and keyed by the ints from the body index, so
+	// copying a set only copies the references and an update only allocates
+	// the path to the changed entry
+	PersistentIntMap<String> intentProps;
+	PersistentIntMap<Value> strConsts;
+	PersistentIntMap<Comparison> intentPropCmps;
+
+	// Structural hash, only valid if hashValid is set. All mutators must
+	// reset the flag.
+	private int hash;
+	private boolean hashValid;
 
 	public AktSet() {
-		intentProps = new HashMap<Value, Value>();
-		strConsts = new HashMap<Value, Value>();
-		intentPropCmps = new HashMap<Value, Comparison<Value, Value>>();
-		booleanExpression = "";
+		this(new AktBodyIndex());
 	}
 
-	public void addIntentProperty(Value left, Value right) {
-		if (left instanceof JInstanceFieldRef) {
-			JInstanceFieldRef jifr = (JInstanceFieldRef) left;
-			left = jifr.getBase();
-		}
-		intentProps.put(left, right);
+	public AktSet(AktBodyIndex index) {
+		this.index = index;
+		intentProps = PersistentIntMap.empty();
+		strConsts = PersistentIntMap.empty();
+		intentPropCmps = PersistentIntMap.empty();
+		condition = Condition.TRUE;
+	}
+
+	public Condition getCondition() {
+		return condition;
+	}
+
+	public void setCondition(Condition condition) {
+		this.condition = condition;
+		this.hashValid = false;
+	}
+
+	private static Value stripFieldRef(Value val) {
+		if (val instanceof JInstanceFieldRef)
+			return ((JInstanceFieldRef) val).getBase();
+		return val;
 	}
 
-	public Comparison<Value, Value> getIntentPropertyCmp(Value local) {
-		return intentPropCmps.get(local);
+	public void addIntentProperty(Value left, String property) {
+		intentProps = intentProps.plus(index.keyOf(stripFieldRef(left)),
+				property);
+		hashValid = false;
+	}
+
+	public Comparison getIntentPropertyCmp(Value local) {
+		return intentPropCmps.get(index.lookupKey(local));
+	}
+
+	public void addIntentPropertyCmp(Value left, Comparison cmp) {
+		putIntentPropertyCmp(left, cmp);
 	}
 
 	public void addStringConstant(Value left, Value right) {
-		strConsts.put(left, right);
+		strConsts = strConsts.plus(index.keyOf(left), right);
+		hashValid = false;
 	}
 
 	public void addIntentPropertyAlias(Value left, Value right) {
-		intentProps.put(left, intentProps.get(right));
+		intentProps = intentProps.plus(index.keyOf(left),
+				intentProps.get(index.lookupKey(right)));
+		hashValid = false;
 	}
 
 	public void addStringConstantAlias(Value left, Value right) {
-		strConsts.put(left, strConsts.get(right));
+		strConsts = strConsts.plus(index.keyOf(left),
+				strConsts.get(index.lookupKey(right)));
+		hashValid = false;
+	}
+
+	public Value getStringConstant(Value val) {
+		return strConsts.get(index.lookupKey(val));
 	}
 
 	public boolean isStringConstant(Value val) {
-		return strConsts.containsKey(val);
+		return strConsts.containsKey(index.lookupKey(val));
 	}
 
 	public boolean isIntentPropertyCmp(Value val) {
-		return intentPropCmps.containsKey(val);
+		return intentPropCmps.containsKey(index.lookupKey(val));
 	}
 
 	public boolean isIntentProperty(Value val) {
-		if (val instanceof JInstanceFieldRef) {
-			JInstanceFieldRef jifr = (JInstanceFieldRef) val;
-			val = jifr.getBase();
-		}
-		return intentProps.containsKey(val);
+		return intentProps.containsKey(index.lookupKey(stripFieldRef(val)));
 	}
 
+	@Override
 	public void copy(AktSet other) {
 		other.clear();
-		other.booleanExpression = this.booleanExpression;
-		other.intentProps.putAll(this.intentProps);
-		other.strConsts.putAll(this.strConsts);
-		other.intentPropCmps.putAll(this.intentPropCmps);
+		other.condition = this.condition;
+		other.intentProps = this.intentProps;
+		other.strConsts = this.strConsts;
+		other.intentPropCmps = this.intentPropCmps;
+		other.hash = this.hash;
+		other.hashValid = this.hashValid;
 	}
 
+	@Override
 	public void merge(AktSet other, AktSet out) {
 		out.clear();
-		// if (this.booleanExpression.length() > 0
-		// || other.booleanExpression.length() > 0) {
-		// System.out.println("MERGE:");
-		// System.out.println(this.booleanExpression);
-		// System.out.println(other.booleanExpression);
-		// }
+		out.condition = this.condition.or(other.condition);
+		out.intentProps = this.intentProps.plusAll(other.intentProps);
+		out.strConsts = this.strConsts.plusAll(other.strConsts);
+		out.intentPropCmps = this.intentPropCmps.plusAll(other.intentPropCmps);
+		out.hashValid = false;
+	}
 
-		out.intentProps.putAll(this.intentProps);
-		out.strConsts.putAll(this.strConsts);
-		out.intentPropCmps.putAll(this.intentPropCmps);
-		out.intentProps.putAll(other.intentProps);
-		out.strConsts.putAll(other.strConsts);
-		out.intentPropCmps.putAll(other.intentPropCmps);
+	/**
+	 * Widens this set with the given one. The set has finite height, the
+	 * tables are bounded by the locals of the body and the conditions by the
+	 * comparisons in it, so the join already guarantees termination.
+	 */
+	@Override
+	public void widen(AktSet newer, AktSet out) {
+		merge(newer, out);
 	}
 
 	public void clear() {
-		this.intentProps.clear();
-		this.strConsts.clear();
+		this.intentProps = PersistentIntMap.empty();
+		this.strConsts = PersistentIntMap.empty();
+		this.intentPropCmps = PersistentIntMap.empty();
+		this.hashValid = false;
+	}
+
+	/**
+	 * Removes all entries for the given keys, e.g. for locals that are dead
+	 * after the current statement
+	 *
+	 * @param keys
+	 *            The keys to remove, as obtained from the body index
+	 */
+	public void removeKeys(int[] keys) {
+		PersistentIntMap<String> newIntentProps = intentProps;
+		PersistentIntMap<Value> newStrConsts = strConsts;
+		PersistentIntMap<Comparison> newIntentPropCmps = intentPropCmps;
+		for (int key : keys) {
+			newIntentProps = newIntentProps.minus(key);
+			newStrConsts = newStrConsts.minus(key);
+			newIntentPropCmps = newIntentPropCmps.minus(key);
+		}
+		if (newIntentProps != intentProps || newStrConsts != strConsts
+				|| newIntentPropCmps != intentPropCmps) {
+			intentProps = newIntentProps;
+			strConsts = newStrConsts;
+			intentPropCmps = newIntentPropCmps;
+			hashValid = false;
+		}
 	}
 
 	public void processComparison(Value dest, Value left, Value right) {
-		Comparison<Value, Value> tup;
-		if (this.intentProps.containsKey(left)) {
-			Value ip = this.intentProps.get(left);
+		int leftKey = index.lookupKey(left);
+		int rightKey = index.lookupKey(right);
+		if (this.intentProps.containsKey(leftKey)) {
+			String ip = this.intentProps.get(leftKey);
 			if (right instanceof StringConstant) {
-				tup = new Comparison<Value, Value>(ip, right, true);
-				this.intentPropCmps.put(dest, tup);
-			} else if (this.strConsts.containsKey(right)) {
-				tup = new Comparison<Value, Value>(ip,
-						this.strConsts.get(right), true);
-				this.intentPropCmps.put(dest, tup);
+				putIntentPropertyCmp(dest, index.comparison(ip, right, true));
+			} else if (this.strConsts.containsKey(rightKey)) {
+				putIntentPropertyCmp(dest,
+						index.comparison(ip, this.strConsts.get(rightKey), true));
 			} else {
-				tup = new Comparison<Value, Value>(ip, right, false);
-				this.intentPropCmps.put(dest, tup);
+				putIntentPropertyCmp(dest, index.comparison(ip, right, false));
 			}
-		} else if (this.intentProps.containsKey(right)) {
-			Value ip = this.intentProps.get(right);
+		} else if (this.intentProps.containsKey(rightKey)) {
+			String ip = this.intentProps.get(rightKey);
 			if (left instanceof StringConstant) {
-				tup = new Comparison<Value, Value>(ip, left, true);
-				this.intentPropCmps.put(dest, tup);
-			} else if (this.strConsts.containsKey(left)) {
-				tup = new Comparison<Value, Value>(ip,
-						this.strConsts.get(left), true);
-				this.intentPropCmps.put(dest, tup);
+				putIntentPropertyCmp(dest, index.comparison(ip, left, true));
+			} else if (this.strConsts.containsKey(leftKey)) {
+				putIntentPropertyCmp(dest,
+						index.comparison(ip, this.strConsts.get(leftKey), true));
 			} else {
-				tup = new Comparison<Value, Value>(ip, left, false);
-				this.intentPropCmps.put(dest, tup);
+				putIntentPropertyCmp(dest, index.comparison(ip, left, false));
 			}
 		}
 	}
 
+	private void putIntentPropertyCmp(Value dest, Comparison cmp) {
+		this.intentPropCmps = this.intentPropCmps.plus(index.keyOf(dest), cmp);
+		this.hashValid = false;
+	}
+
+	/**
+	 * Gets the structural hash code of this set. The tables maintain their
+	 * hashes incrementally, and the result is cached until the next update,
+	 * so this is a constant-time operation.
+	 */
 	@Override
 	public int hashCode() {
-		return 0;
+		if (!hashValid) {
+			int h = condition.hashCode();
+			h = h * 31 + intentProps.hashCode();
+			h = h * 31 + strConsts.hashCode();
+			h = h * 31 + intentPropCmps.hashCode();
+			hash = h;
+			hashValid = true;
+		}
+		return hash;
 	}
 
+	/**
+	 * Checks whether this set is equal to the given one. Conditions are
+	 * canonical and compared by identity, the tables share structure with
+	 * the sets they were copied from, so the common case of comparing a set
+	 * with an unchanged copy does not traverse any table.
+	 */
 	@Override
 	public boolean equals(Object obj) {
-		return true;
+		if (this == obj)
+			return true;
+		if (!(obj instanceof AktSet))
+			return false;
+		AktSet other = (AktSet) obj;
+		if (condition != other.condition)
+			return false;
+		if (hashCode() != other.hashCode())
+			return false;
+		return intentProps.equals(other.intentProps)
+				&& strConsts.equals(other.strConsts)
+				&& intentPropCmps.equals(other.intentPropCmps);
 	}
 
-	public Value getIntentProperty(Value val) {
-		return this.intentProps.get(val);
+	public String getIntentProperty(Value val) {
+		return this.intentProps.get(index.lookupKey(val));
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,52 @@
+package soot.jimple.infoflow;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import soot.SootMethod;
+
+/**
+ * Cache of the method summaries computed by the {@link AktAnalysis}. Methods
+ * are analyzed bottom-up in the call graph, so the summaries of all callees
+ * are available when a method is analyzed, except for recursive calls.
+ */
+public class AktSummaries {
+
+	private final Map<SootMethod, AktSummary> summaries = new ConcurrentHashMap<SootMethod, AktSummary>();
+
+	/**
+	 * Gets the summary of the given method
+	 *
+	 * @param sm
+	 *            The method for which to get the summary
+	 * @return The summary of the method, or null if the method has not been
+	 *         summarized or its summary is empty
+	 */
+	public AktSummary get(SootMethod sm) {
+		return summaries.get(sm);
+	}
+
+	/**
+	 * Registers the summary of the given method. Empty summaries are not
+	 * stored.
+	 *
+	 * @param sm
+	 *            The method that has been summarized
+	 * @param summary
+	 *            The summary of the method
+	 */
+	public void put(SootMethod sm, AktSummary summary) {
+		if (summary != null && !summary.isEmpty())
+			summaries.put(sm, summary);
+	}
+
+	/**
+	 * Gets the number of non-empty summaries in this cache
+	 *
+	 * @return The number of methods with a non-empty summary
+	 */
+	public int size() {
+		return summaries.size();
+	}
+
+}
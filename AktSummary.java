@@ -0,0 +1,84 @@
+package soot.jimple.infoflow;
+
+import soot.Value;
+import soot.jimple.infoflow.AktSet.Comparison;
+
+/**
+ * Summary of what a method returns in terms of the {@link AktAnalysis}
+ * lattice. A summary is computed once per method and then applied at all call
+ * sites, so intent properties and comparisons that flow through helper
+ * methods keep their meaning in the caller.
+ */
+public class AktSummary {
+
+	private final String returnProperty;
+	private final Value returnConstant;
+	private final Comparison returnComparison;
+
+	public AktSummary(String returnProperty, Value returnConstant,
+			Comparison returnComparison) {
+		this.returnProperty = returnProperty;
+		this.returnConstant = returnConstant;
+		this.returnComparison = returnComparison;
+	}
+
+	/**
+	 * Gets the intent property returned by the method
+	 *
+	 * @return The name of the intent property getter whose result is
+	 *         returned on all paths, or null if there is none
+	 */
+	public String getReturnProperty() {
+		return returnProperty;
+	}
+
+	/**
+	 * Gets the string constant returned by the method
+	 *
+	 * @return The string constant returned on all paths, or null if there is
+	 *         none
+	 */
+	public Value getReturnConstant() {
+		return returnConstant;
+	}
+
+	/**
+	 * Gets the comparison returned by the method. Only comparisons of an
+	 * intent property with a string constant are summarized, as all other
+	 * operands are meaningless outside the method.
+	 *
+	 * @return The comparison returned on all paths, or null if there is none
+	 */
+	public Comparison getReturnComparison() {
+		return returnComparison;
+	}
+
+	/**
+	 * Checks whether this summary carries any information
+	 *
+	 * @return True if applying this summary at a call site has no effect,
+	 *         otherwise false
+	 */
+	public boolean isEmpty() {
+		return returnProperty == null && returnConstant == null
+				&& returnComparison == null;
+	}
+
+	/**
+	 * Applies this summary to the flow set at a call site
+	 *
+	 * @param out
+	 *            The flow set after the call
+	 * @param left
+	 *            The value to which the result of the call is assigned
+	 */
+	public void apply(AktSet out, Value left) {
+		if (returnProperty != null)
+			out.addIntentProperty(left, returnProperty);
+		else if (returnComparison != null)
+			out.addIntentPropertyCmp(left, returnComparison);
+		else if (returnConstant != null)
+			out.addStringConstant(left, returnConstant);
+	}
+
+}
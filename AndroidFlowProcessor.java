@@ -1,36 +1,326 @@
 package soot.jimple.infoflow;
 
-import soot.SootClass;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import soot.SootMethod;
 
+/**
+ * Flow processor that classifies methods according to the rules in the
+ * AktFlowProcessor.txt file. Each rule consists of a kind, a class name, and
+ * a method name that may end with a '*' to match all methods with the given
+ * prefix, e.g.
+ *
+ * <pre>
+ * getter android.content.Intent get*
+ * </pre>
+ *
+ * The rules are read from the AktFlowProcessor.txt resource next to this
+ * class. A different rule file can be given with {@link #setRulesFile(String)}
+ * or the {@value #RULES_PROPERTY} system property.
+ *
+ * The rules are compiled into a trie over the class and method names, and the
+ * classification of every method is computed only once and shared by all
+ * analyses.
+ */
 public class AndroidFlowProcessor extends AktFlowProcessor {
-	@Override
-	public boolean isIntentPropertyGetter(SootMethod sm) {
-		SootClass sc = sm.getDeclaringClass();
-		String className = sc.getName();
-		String methodName = sm.getName();
 
-		if (className.equals("android.content.Intent")) {
-			if (methodName.equals("getAction")) {
-				return true;
+	public static final int INTENT_PROPERTY_GETTER = 1;
+	public static final int INTENT_SOURCE = 1 << 1;
+	public static final int STRING_COMPARISON = 1 << 2;
+
+	/**
+	 * System property that names a rule file to use instead of the bundled
+	 * rules
+	 */
+	public static final String RULES_PROPERTY = "akt.flowprocessor.rules";
+
+	private static final String RULES_RESOURCE = "AktFlowProcessor.txt";
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(AndroidFlowProcessor.class);
+
+	/**
+	 * Rules used if no rule file is found
+	 */
+	private static final List<String> DEFAULT_RULES = Arrays.asList(
+			"getter android.content.Intent get*",
+			"getter android.os.Bundle get*",
+			"source android.app.Activity startActivityForResult",
+			"equals java.lang.String equals",
+			"equals java.lang.String equalsIgnoreCase",
+			"equals java.lang.String contentEquals");
+
+	private static AndroidFlowProcessor instance;
+	private static String rulesFile = null;
+
+	private final SignatureTrie rules = new SignatureTrie();
+	private final Map<SootMethod, Integer> kinds = new ConcurrentHashMap<SootMethod, Integer>();
+	private final String rulesDigest;
+
+	/**
+	 * Creates a new flow processor that uses the given rules
+	 *
+	 * @param rules
+	 *            The classification rules, one per entry
+	 */
+	public AndroidFlowProcessor(List<String> rules) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		for (String rule : rules)
+			addRule(rule, md);
+		rulesDigest = toHex(md.digest());
+	}
+
+	/**
+	 * Gets the flow processor shared by all analyses. The rules are loaded on
+	 * first use.
+	 *
+	 * @return The shared flow processor
+	 */
+	public static synchronized AndroidFlowProcessor v() {
+		if (instance == null)
+			instance = new AndroidFlowProcessor(loadRules());
+		return instance;
+	}
+
+	/**
+	 * Drops the shared flow processor together with its cached
+	 * classifications. Must be called whenever Soot is reset.
+	 */
+	public static synchronized void reset() {
+		instance = null;
+	}
+
+	/**
+	 * Sets the file from which the rules of the shared flow processor are
+	 * read. It takes precedence over the {@value #RULES_PROPERTY} system
+	 * property and the bundled rules.
+	 *
+	 * @param rulesFile
+	 *            The rule file, or null to use the system property or the
+	 *            bundled rules
+	 */
+	public static synchronized void setRulesFile(String rulesFile) {
+		AndroidFlowProcessor.rulesFile = rulesFile;
+		instance = null;
+	}
+
+	/**
+	 * Loads the classification rules from the configured rule file or, if
+	 * there is none, from the bundled resource
+	 *
+	 * @return The classification rules
+	 */
+	private static List<String> loadRules() {
+		String fileName = rulesFile != null ? rulesFile : System
+				.getProperty(RULES_PROPERTY);
+		String source;
+		InputStream in;
+		if (fileName != null) {
+			source = fileName;
+			try {
+				in = new FileInputStream(fileName);
+			} catch (IOException ex) {
+				logger.warn("Could not open flow processor rules " + fileName
+						+ ", using the default rules", ex);
+				return DEFAULT_RULES;
+			}
+		} else {
+			source = "resource " + RULES_RESOURCE;
+			in = AndroidFlowProcessor.class.getResourceAsStream(RULES_RESOURCE);
+			if (in == null) {
+				logger.warn("Flow processor rules {} not found on the "
+						+ "classpath, using the default rules", RULES_RESOURCE);
+				return DEFAULT_RULES;
 			}
-			if(methodName.startsWith("get")) {
-				return true;
+		}
+
+		BufferedReader rdr = null;
+		try {
+			List<String> rules = new ArrayList<String>();
+			rdr = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+			String line;
+			while ((line = rdr.readLine()) != null)
+				rules.add(line);
+			logger.info("Loaded flow processor rules from {}", source);
+			return rules;
+		} catch (IOException ex) {
+			logger.warn("Could not read flow processor rules from " + source
+					+ ", using the default rules", ex);
+			return DEFAULT_RULES;
+		} finally {
+			try {
+				if (rdr != null)
+					rdr.close();
+				else
+					in.close();
+			} catch (IOException e) {
 			}
 		}
-		return false;
+	}
+
+	private void addRule(String rule, MessageDigest md) {
+		rule = rule.trim();
+		if (rule.isEmpty() || rule.startsWith("#"))
+			return;
+		md.update((rule + "\n").getBytes(Charset.forName("UTF-8")));
+
+		String[] parts = rule.split("\\s+");
+		if (parts.length != 3)
+			throw new RuntimeException("Invalid flow processor rule: " + rule);
+		int kind;
+		if (parts[0].equals("getter"))
+			kind = INTENT_PROPERTY_GETTER;
+		else if (parts[0].equals("source"))
+			kind = INTENT_SOURCE;
+		else if (parts[0].equals("equals"))
+			kind = STRING_COMPARISON;
+		else
+			throw new RuntimeException("Invalid rule kind: " + parts[0]);
+
+		String method = parts[2];
+		boolean prefix = method.endsWith("*");
+		if (prefix)
+			method = method.substring(0, method.length() - 1);
+		rules.add(parts[1], method, prefix, kind);
+	}
+
+	/**
+	 * Gets a hash of the rules of this flow processor. Comments and blank
+	 * lines are not part of the hash, so only changes to the rules themselves
+	 * change it.
+	 *
+	 * @return The hex-encoded hash of the rules
+	 */
+	public String getRulesDigest() {
+		return rulesDigest;
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte by : bytes)
+			sb.append(String.format("%02x", by));
+		return sb.toString();
+	}
+
+	/**
+	 * Gets the kinds of the given method
+	 *
+	 * @param sm
+	 *            The method to classify
+	 * @return The bitmask of the kinds of the given method
+	 */
+	public int getKinds(SootMethod sm) {
+		Integer k = kinds.get(sm);
+		if (k == null) {
+			k = rules.match(sm.getDeclaringClass().getName(), sm.getName());
+			kinds.put(sm, k);
+		}
+		return k;
+	}
+
+	@Override
+	public boolean isIntentPropertyGetter(SootMethod sm) {
+		return (getKinds(sm) & INTENT_PROPERTY_GETTER) != 0;
 	}
 
 	@Override
 	public boolean isIntentSource(SootMethod sm) {
-		SootClass sc = sm.getDeclaringClass();
-		String className = sc.getName();
-		String methodName = sm.getName();
-		if (className.equals("android.app.Activity")) {
-			if (methodName.equals("startActivityForResult")) {
-				return true;
+		return (getKinds(sm) & INTENT_SOURCE) != 0;
+	}
+
+	@Override
+	public boolean isStringComparison(SootMethod sm) {
+		return (getKinds(sm) & STRING_COMPARISON) != 0;
+	}
+
+	/**
+	 * Trie over the characters of the class name, a separator, and the method
+	 * name. Each node holds the kinds of the rules that end exactly at it and
+	 * of the prefix rules that match everything below it.
+	 */
+	private static class SignatureTrie {
+
+		private static final char SEPARATOR = ':';
+
+		private final Node root = new Node();
+
+		public void add(String className, String methodName, boolean prefix,
+				int kind) {
+			Node n = root;
+			for (int i = 0; i < className.length(); i++)
+				n = n.getOrAddChild(className.charAt(i));
+			n = n.getOrAddChild(SEPARATOR);
+			for (int i = 0; i < methodName.length(); i++)
+				n = n.getOrAddChild(methodName.charAt(i));
+			if (prefix)
+				n.prefixKinds |= kind;
+			else
+				n.exactKinds |= kind;
+		}
+
+		public int match(String className, String methodName) {
+			Node n = root;
+			for (int i = 0; i < className.length() && n != null; i++)
+				n = n.getChild(className.charAt(i));
+			if (n != null)
+				n = n.getChild(SEPARATOR);
+
+			int result = 0;
+			for (int i = 0; i < methodName.length() && n != null; i++) {
+				result |= n.prefixKinds;
+				n = n.getChild(methodName.charAt(i));
+			}
+			if (n != null)
+				result |= n.prefixKinds | n.exactKinds;
+			return result;
+		}
+
+		private static class Node {
+			private char[] labels = new char[0];
+			private Node[] children = new Node[0];
+			private int exactKinds = 0;
+			private int prefixKinds = 0;
+
+			private Node getChild(char c) {
+				for (int i = 0; i < labels.length; i++)
+					if (labels[i] == c)
+						return children[i];
+				return null;
+			}
+
+			private Node getOrAddChild(char c) {
+				Node child = getChild(c);
+				if (child == null) {
+					child = new Node();
+					labels = Arrays.copyOf(labels, labels.length + 1);
+					children = Arrays.copyOf(children, children.length + 1);
+					labels[labels.length - 1] = c;
+					children[children.length - 1] = child;
+				}
+				return child;
 			}
 		}
-		return false;
+
 	}
+
 }
@@ -0,0 +1,409 @@
+package soot.jimple.infoflow;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import soot.Body;
+import soot.Scene;
+import soot.SceneTransformer;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Unit;
+import soot.jimple.Stmt;
+import soot.toolkits.graph.ExceptionalUnitGraph;
+import soot.toolkits.graph.UnitGraph;
+
+/**
+ * Scene transformer that runs the {@link AktAnalysis} on all method bodies and
+ * attaches the resulting boolean expression tags to the units. Everything
+ * that touches the Scene or the class hierarchy is done sequentially up
+ * front: retrieving the bodies, building their exceptional unit graphs, which
+ * consults the throw analysis, and resolving the callees of all invocations,
+ * which may add phantom methods. None of these are thread-safe in Soot. The
+ * analyses themselves then run concurrently on a fork-join pool and only work
+ * on these prepared inputs.
+ * 
+ * In summary mode, the methods are analyzed bottom-up in the call graph. All
+ * methods of one wave only call methods of earlier waves (apart from
+ * recursion), so the summaries of their callees are complete when the wave
+ * runs, and every method is still analyzed exactly once.
+ */
+public class BooleanExpressionTagger extends SceneTransformer {
+
+	/**
+	 * Number of method bodies below which a task is no longer split
+	 */
+	private static final int SEQUENTIAL_THRESHOLD = 16;
+
+	/**
+	 * Height of methods on the current call graph traversal path
+	 */
+	private static final int ON_PATH = -1;
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(BooleanExpressionTagger.class);
+
+	private final int numThreads;
+
+	// Summaries computed so far, or null if summary mode is disabled
+	private final AktSummaries summaries;
+
+	private AktAnalysisCache cache = null;
+
+	// Number of bodies that could not be analyzed in the last run
+	private final AtomicInteger failures = new AtomicInteger();
+	// Number of bodies that were tagged in the last run
+	private volatile int tagged = 0;
+
+	/**
+	 * Creates a new instance of the {@link BooleanExpressionTagger} class
+	 *
+	 * @param numThreads
+	 *            The parallelism level of the fork-join pool on which the
+	 *            method bodies are analyzed
+	 */
+	public BooleanExpressionTagger(int numThreads) {
+		this(numThreads, false);
+	}
+
+	/**
+	 * Creates a new instance of the {@link BooleanExpressionTagger} class
+	 *
+	 * @param numThreads
+	 *            The parallelism level of the fork-join pool on which the
+	 *            method bodies are analyzed
+	 * @param useSummaries
+	 *            True if method summaries shall be computed and applied at
+	 *            call sites, otherwise false
+	 */
+	public BooleanExpressionTagger(int numThreads, boolean useSummaries) {
+		this.numThreads = Math.max(1, numThreads);
+		this.summaries = useSummaries ? new AktSummaries() : null;
+	}
+
+	/**
+	 * Sets the cache from which the results of unchanged method bodies are
+	 * restored instead of analyzing them again
+	 *
+	 * @param cache
+	 *            The analysis cache, or null to always analyze all bodies
+	 */
+	public void setCache(AktAnalysisCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Gets the number of method bodies that could not be analyzed in the last
+	 * run. Units of these bodies have no conditions.
+	 *
+	 * @return The number of failed bodies
+	 */
+	public int getFailureCount() {
+		return failures.get();
+	}
+
+	/**
+	 * Gets the number of method bodies that were tagged in the last run,
+	 * either by analyzing them or by restoring their results from the cache
+	 *
+	 * @return The number of tagged bodies
+	 */
+	public int getTaggedCount() {
+		return tagged;
+	}
+
+	@Override
+	protected void internalTransform(String phaseName,
+			Map<String, String> options) {
+		failures.set(0);
+		tagged = 0;
+		List<PreparedBody> bodies = collectBodies();
+		int prepareFailures = failures.get();
+		if (bodies.isEmpty())
+			return;
+
+		List<List<PreparedBody>> waves;
+		if (summaries == null)
+			waves = Collections.singletonList(bodies);
+		else
+			waves = computeWaves(bodies);
+
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			for (List<PreparedBody> wave : waves)
+				pool.invoke(new TagBodiesTask(wave, 0, wave.size()));
+		} finally {
+			pool.shutdown();
+		}
+
+		int failed = failures.get();
+		tagged = bodies.size() - (failed - prepareFailures);
+		if (failed > 0)
+			logger.warn("Tagged {} method bodies, {} bodies failed", tagged,
+					failed);
+		else
+			logger.info("Tagged {} method bodies", tagged);
+		if (summaries != null && Debug.isInfoEnabled())
+			Debug.debugInfo("[AKTION] Computed " + summaries.size()
+					+ " method summaries in " + waves.size() + " waves");
+	}
+
+	/**
+	 * Gets the methods whose bodies shall be tagged. By default, these are all
+	 * methods of all classes in the Scene. Subclasses can narrow this down to
+	 * avoid constructing bodies that are never looked at.
+	 *
+	 * @return The methods to be tagged
+	 */
+	protected Collection<SootMethod> getMethodsToTag() {
+		List<SootMethod> methods = new ArrayList<SootMethod>();
+		for (SootClass sc : Scene.v().getClasses())
+			methods.addAll(sc.getMethods());
+		return methods;
+	}
+
+	/**
+	 * Retrieves the active bodies of all methods to be tagged and prepares
+	 * them for the concurrent analysis
+	 *
+	 * @return The list of method bodies to analyze
+	 */
+	private List<PreparedBody> collectBodies() {
+		List<PreparedBody> bodies = new ArrayList<PreparedBody>();
+		for (SootMethod m : getMethodsToTag()) {
+			if (!m.isConcrete() || m.getDeclaringClass().isPhantom())
+				continue;
+			Body b;
+			try {
+				b = m.retrieveActiveBody();
+			} catch (Exception e) {
+				continue;
+			}
+			try {
+				bodies.add(new PreparedBody(b));
+			} catch (Exception e) {
+				failures.incrementAndGet();
+				logger.error("Could not prepare " + m, e);
+			}
+		}
+		return bodies;
+	}
+
+	/**
+	 * Groups the given bodies into waves by their height in the call graph.
+	 * Methods that do not call any other method to be analyzed have height
+	 * zero, all other methods are one higher than their highest callee. Calls
+	 * that close a cycle are ignored.
+	 *
+	 * @param bodies
+	 *            The bodies to analyze
+	 * @return The bodies grouped by height, lowest first
+	 */
+	private List<List<PreparedBody>> computeWaves(List<PreparedBody> bodies) {
+		Map<SootMethod, PreparedBody> bodyOf = new HashMap<SootMethod, PreparedBody>(
+				bodies.size() * 2);
+		for (PreparedBody pb : bodies)
+			bodyOf.put(pb.body.getMethod(), pb);
+
+		// Call edges between the methods to analyze. Summaries are looked up
+		// by the statically resolved callee, so that is the edge we need.
+		Map<SootMethod, List<SootMethod>> callees = new HashMap<SootMethod, List<SootMethod>>(
+				bodies.size() * 2);
+		for (PreparedBody pb : bodies) {
+			SootMethod sm = pb.body.getMethod();
+			List<SootMethod> targets = new ArrayList<SootMethod>();
+			for (SootMethod callee : pb.callees.values())
+				if (callee != sm && bodyOf.containsKey(callee))
+					targets.add(callee);
+			callees.put(sm, targets);
+		}
+
+		Map<SootMethod, Integer> heights = new HashMap<SootMethod, Integer>(
+				bodies.size() * 2);
+		List<List<PreparedBody>> waves = new ArrayList<List<PreparedBody>>();
+		for (PreparedBody pb : bodies) {
+			int height = computeHeight(pb.body.getMethod(), callees, heights);
+			while (waves.size() <= height)
+				waves.add(new ArrayList<PreparedBody>());
+			waves.get(height).add(pb);
+		}
+		return waves;
+	}
+
+	/**
+	 * Computes the height of the given method in the call graph. The graph is
+	 * traversed iteratively, since call chains can be deeper than the stack.
+	 * Methods on the current traversal path count as height zero, which
+	 * breaks cycles.
+	 */
+	private static int computeHeight(SootMethod root,
+			Map<SootMethod, List<SootMethod>> callees,
+			Map<SootMethod, Integer> heights) {
+		Integer known = heights.get(root);
+		if (known != null)
+			return known;
+
+		List<SootMethod> path = new ArrayList<SootMethod>();
+		List<Integer> nextCallee = new ArrayList<Integer>();
+		path.add(root);
+		nextCallee.add(0);
+		heights.put(root, ON_PATH);
+		while (!path.isEmpty()) {
+			int top = path.size() - 1;
+			SootMethod sm = path.get(top);
+			List<SootMethod> targets = callees.get(sm);
+			int idx = nextCallee.get(top);
+			if (idx < targets.size()) {
+				nextCallee.set(top, idx + 1);
+				SootMethod callee = targets.get(idx);
+				if (!heights.containsKey(callee)) {
+					heights.put(callee, ON_PATH);
+					path.add(callee);
+					nextCallee.add(0);
+				}
+				continue;
+			}
+
+			int height = 0;
+			for (SootMethod callee : targets) {
+				int h = heights.get(callee);
+				if (h != ON_PATH)
+					height = Math.max(height, h + 1);
+			}
+			heights.put(sm, height);
+			path.remove(top);
+			nextCallee.remove(top);
+		}
+		return heights.get(root);
+	}
+
+	/**
+	 * Analyzes a single method body. Failures in one body must not abort the
+	 * whole pass.
+	 *
+	 * @param pb
+	 *            The body to analyze
+	 */
+	private void tagBody(PreparedBody pb) {
+		Body b = pb.body;
+		try {
+			String key = null;
+			if (cache != null) {
+				key = cache.computeKey(b, summaries, pb.callees);
+				AktAnalysisCache.Entry entry = cache.load(key, b.getUnits()
+						.size());
+				if (entry != null) {
+					rehydrate(b, entry);
+					return;
+				}
+			}
+
+			AktAnalysis analysis = new AktAnalysis(pb.graph, summaries,
+					pb.callees);
+			AktSummary summary = null;
+			if (summaries != null) {
+				summary = analysis.getSummary();
+				summaries.put(b.getMethod(), summary);
+			}
+
+			if (cache != null) {
+				AktAnnotations annotations = AktAnnotations.v();
+				Condition[] conditions = new Condition[b.getUnits().size()];
+				int i = 0;
+				for (Unit u : b.getUnits())
+					conditions[i++] = annotations.getCondition(u);
+				cache.store(key, new AktAnalysisCache.Entry(conditions, summary));
+			}
+		} catch (Exception e) {
+			failures.incrementAndGet();
+			logger.error("Could not analyze " + b.getMethod(), e);
+		}
+	}
+
+	/**
+	 * Restores the results of a previous analysis of the given body from the
+	 * cache
+	 *
+	 * @param b
+	 *            The body whose results to restore
+	 * @param entry
+	 *            The cache entry of the body
+	 */
+	private void rehydrate(Body b, AktAnalysisCache.Entry entry) {
+		AktAnnotations annotations = AktAnnotations.v();
+		Condition[] conditions = entry.getConditions();
+		int i = 0;
+		for (Unit u : b.getUnits()) {
+			Condition cond = conditions[i++];
+			if (cond != null)
+				annotations.putCondition(u, cond);
+		}
+		if (summaries != null)
+			summaries.put(b.getMethod(), entry.getSummary());
+	}
+
+	/**
+	 * A method body together with everything the analysis needs from the
+	 * Scene, computed on the thread that collects the bodies
+	 */
+	private static class PreparedBody {
+
+		final Body body;
+		final UnitGraph graph;
+		final Map<Unit, SootMethod> callees;
+
+		PreparedBody(Body body) {
+			this.body = body;
+			this.graph = new ExceptionalUnitGraph(body);
+			this.callees = new HashMap<Unit, SootMethod>();
+			for (Unit u : body.getUnits()) {
+				Stmt s = (Stmt) u;
+				if (s.containsInvokeExpr())
+					callees.put(u, s.getInvokeExpr().getMethod());
+			}
+		}
+
+	}
+
+	/**
+	 * Fork-join task that splits a range of method bodies until it is small
+	 * enough to be analyzed sequentially
+	 */
+	private class TagBodiesTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 7286447135961342532L;
+
+		private final List<PreparedBody> bodies;
+		private final int from;
+		private final int to;
+
+		public TagBodiesTask(List<PreparedBody> bodies, int from, int to) {
+			this.bodies = bodies;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= SEQUENTIAL_THRESHOLD) {
+				for (int i = from; i < to; i++)
+					tagBody(bodies.get(i));
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new TagBodiesTask(bodies, from, mid), new TagBodiesTask(
+					bodies, mid, to));
+		}
+	}
+
+}
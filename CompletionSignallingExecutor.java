@@ -0,0 +1,142 @@
+package soot.jimple.infoflow;
+
+import heros.solver.CountingThreadPoolExecutor;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Executor that signals waiting threads as soon as the last of its tasks has
+ * finished. The solvers shut down their executor once they see no more
+ * pending work, but at that point the worker threads may still be running
+ * the tail of their last task. Instead of polling for that, the driver can
+ * block in {@link #awaitQuiescence(long, TimeUnit)}.
+ */
+public class CompletionSignallingExecutor extends CountingThreadPoolExecutor {
+
+	private final Object lock = new Object();
+	private int outstanding = 0;
+	private volatile Throwable exception = null;
+
+	public CompletionSignallingExecutor(int corePoolSize, int maximumPoolSize,
+			long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue) {
+		super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue);
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		taskSubmitted();
+		try {
+			super.execute(command);
+		} catch (RejectedExecutionException ex) {
+			taskDone();
+			throw ex;
+		}
+	}
+
+	@Override
+	protected void afterExecute(Runnable r, Throwable t) {
+		try {
+			super.afterExecute(r, t);
+		} finally {
+			if (t != null)
+				taskFailed(t);
+			taskDone();
+		}
+	}
+
+	/**
+	 * Records that a new task has been submitted to this executor
+	 */
+	protected void taskSubmitted() {
+		synchronized (lock) {
+			outstanding++;
+		}
+	}
+
+	/**
+	 * Records that a task of this executor has finished
+	 */
+	protected void taskDone() {
+		synchronized (lock) {
+			if (--outstanding == 0)
+				lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Records that a task of this executor has failed. Threads waiting in
+	 * {@link #awaitCompletion()} are released immediately.
+	 *
+	 * @param t
+	 *            The exception thrown by the task
+	 */
+	protected void taskFailed(Throwable t) {
+		synchronized (lock) {
+			if (exception == null)
+				exception = t;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Gets the number of tasks that have been submitted but have not finished
+	 * yet
+	 *
+	 * @return The number of outstanding tasks
+	 */
+	public int getOutstandingTasks() {
+		synchronized (lock) {
+			return outstanding;
+		}
+	}
+
+	@Override
+	public void awaitCompletion() throws InterruptedException {
+		synchronized (lock) {
+			while (outstanding > 0 && exception == null)
+				lock.wait();
+		}
+	}
+
+	@Override
+	public Throwable getException() {
+		return exception != null ? exception : super.getException();
+	}
+
+	/**
+	 * Blocks until all submitted tasks have finished and, if the executor has
+	 * been shut down, until all worker threads have terminated
+	 *
+	 * @param timeout
+	 *            The maximum time to wait
+	 * @param unit
+	 *            The unit of the timeout
+	 * @throws InterruptedException
+	 *             Thrown if the current thread is interrupted while waiting
+	 * @throws TimeoutException
+	 *             Thrown if the executor did not become quiescent in time
+	 */
+	public void awaitQuiescence(long timeout, TimeUnit unit)
+			throws InterruptedException, TimeoutException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (lock) {
+			while (outstanding > 0) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0)
+					throw new TimeoutException(outstanding
+							+ " tasks still running after " + timeout + " "
+							+ unit.toString().toLowerCase());
+				TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+			}
+		}
+		if (isShutdown()
+				&& !awaitTermination(deadline - System.nanoTime(),
+						TimeUnit.NANOSECONDS))
+			throw new TimeoutException("Worker threads still alive after "
+					+ timeout + " " + unit.toString().toLowerCase());
+	}
+
+}
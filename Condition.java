@@ -0,0 +1,500 @@
+package soot.jimple.infoflow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Branch condition under which a unit is reached. A condition is a reduced
+ * ordered binary decision diagram over atoms of the form
+ * <code>E(property, constant) == value</code>, where the variables are ordered
+ * by the creation order of the atoms. Atoms and diagram nodes are
+ * hash-consed, so equivalent conditions are the same object and can be
+ * compared by identity, sets only hold a pointer to their condition, and the
+ * textual form is only built when it is written out.
+ *
+ * The creation order of the atoms depends on the order in which the methods
+ * are analyzed, which varies between runs. The textual form is therefore
+ * built over the atoms sorted by their contents, so that it is the same in
+ * every run.
+ */
+public final class Condition {
+
+	private static final ConcurrentMap<Atom, Atom> atoms = new ConcurrentHashMap<Atom, Atom>();
+	private static final ConcurrentMap<Condition, Condition> nodes = new ConcurrentHashMap<Condition, Condition>();
+	private static final AtomicInteger atomCounter = new AtomicInteger();
+	private static final AtomicInteger nodeCounter = new AtomicInteger();
+
+	/**
+	 * The condition that never holds. This is the condition of units that
+	 * have not been reached yet.
+	 */
+	public static final Condition FALSE = new Condition(null, null, null);
+
+	/**
+	 * The condition that always holds
+	 */
+	public static final Condition TRUE = new Condition(null, null, null);
+
+	private static final int OP_AND = 0;
+	private static final int OP_OR = 1;
+	private static final int OP_NOT = 2;
+
+	private static final int CACHE_SIZE = 1 << 14;
+
+	// Lossy cache of recent operation results. Entries are immutable, so
+	// racing threads at worst recompute a result.
+	private static final CacheEntry[] cache = new CacheEntry[CACHE_SIZE];
+
+	/**
+	 * Orders atoms by their property, constant and value
+	 */
+	private static final Comparator<Atom> ATOM_ORDER = new Comparator<Atom>() {
+
+		@Override
+		public int compare(Atom a, Atom b) {
+			int c = a.property.compareTo(b.property);
+			if (c == 0)
+				c = a.constant.compareTo(b.constant);
+			if (c == 0)
+				c = a.value.compareTo(b.value);
+			return c;
+		}
+
+	};
+
+	/**
+	 * Comparison of an intent property with a value, i.e. E(property,
+	 * constant) == value
+	 */
+	public static final class Atom {
+		private final String property;
+		private final String constant;
+		private final String value;
+		private final int id;
+
+		private final Literal positive;
+		private final Literal negative;
+
+		private Atom(String property, String constant, String value, int id) {
+			this.property = property;
+			this.constant = constant;
+			this.value = value;
+			this.id = id;
+			// Lookup keys do not need literals
+			this.positive = id < 0 ? null : new Literal(this, true);
+			this.negative = id < 0 ? null : new Literal(this, false);
+		}
+
+		public String getProperty() {
+			return property;
+		}
+
+		public String getConstant() {
+			return constant;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		/**
+		 * Gets the literal that asserts or negates this atom
+		 *
+		 * @param positive
+		 *            True for E(p, c) == v, false for E(p, c) != v
+		 * @return The literal
+		 */
+		public Literal literal(boolean positive) {
+			return positive ? this.positive : this.negative;
+		}
+
+		@Override
+		public int hashCode() {
+			return (property.hashCode() * 31 + constant.hashCode()) * 31
+					+ value.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Atom))
+				return false;
+			Atom other = (Atom) obj;
+			return property.equals(other.property)
+					&& constant.equals(other.constant)
+					&& value.equals(other.value);
+		}
+	}
+
+	/**
+	 * An atom or its negation
+	 */
+	public static final class Literal {
+		private final Atom atom;
+		private final boolean positive;
+
+		private Literal(Atom atom, boolean positive) {
+			this.atom = atom;
+			this.positive = positive;
+		}
+
+		public Atom getAtom() {
+			return atom;
+		}
+
+		public boolean isPositive() {
+			return positive;
+		}
+
+		/**
+		 * Gets the condition that holds exactly when this literal holds
+		 *
+		 * @return The condition for this literal
+		 */
+		public Condition toCondition() {
+			return positive ? mk(atom, FALSE, TRUE) : mk(atom, TRUE, FALSE);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("E(%s, %s) %s %s", atom.property,
+					atom.constant, positive ? "==" : "!=", atom.value);
+		}
+	}
+
+	private static final class CacheEntry {
+		final int op;
+		final Condition left;
+		final Condition right;
+		final Condition result;
+
+		CacheEntry(int op, Condition left, Condition right, Condition result) {
+			this.op = op;
+			this.left = left;
+			this.right = right;
+			this.result = result;
+		}
+	}
+
+	// The variable tested in this node, null for the terminals
+	private final Atom var;
+	// The successors if the variable is false or true, respectively
+	private final Condition low;
+	private final Condition high;
+	private final int id;
+	private final int hashCode;
+
+	private Condition(Atom var, Condition low, Condition high) {
+		this.var = var;
+		this.low = low;
+		this.high = high;
+		this.id = nodeCounter.getAndIncrement();
+		this.hashCode = var == null ? id : (var.id * 31 + low.id) * 31
+				+ high.id;
+	}
+
+	/**
+	 * Gets the unique node testing the given variable
+	 */
+	private static Condition mk(Atom var, Condition low, Condition high) {
+		if (low == high)
+			return low;
+		Condition node = new Condition(var, low, high);
+		Condition existing = nodes.putIfAbsent(node, node);
+		return existing == null ? node : existing;
+	}
+
+	/**
+	 * Drops all interned atoms and nodes. Conditions created before the reset
+	 * must not be used afterwards. Must be called whenever Soot is reset.
+	 */
+	public static void reset() {
+		atoms.clear();
+		nodes.clear();
+		Arrays.fill(cache, null);
+		atomCounter.set(0);
+	}
+
+	/**
+	 * Gets the interned atom E(property, constant) == value
+	 *
+	 * @param property
+	 *            The intent property being compared
+	 * @param constant
+	 *            The value the intent property is compared with
+	 * @param value
+	 *            The value against which the comparison result is checked
+	 * @return The interned atom
+	 */
+	public static Atom atom(String property, String constant, String value) {
+		Atom atom = new Atom(property, constant, value, -1);
+		Atom existing = atoms.get(atom);
+		if (existing != null)
+			return existing;
+		atom = new Atom(property, constant, value,
+				atomCounter.getAndIncrement());
+		existing = atoms.putIfAbsent(atom, atom);
+		return existing == null ? atom : existing;
+	}
+
+	/**
+	 * Gets the conjunction of this condition and the given literal
+	 *
+	 * @param literal
+	 *            The literal to add
+	 * @return The canonical conjunction
+	 */
+	public Condition and(Literal literal) {
+		return and(literal.toCondition());
+	}
+
+	/**
+	 * Gets the conjunction of this condition and the given one
+	 *
+	 * @param other
+	 *            The other condition
+	 * @return The canonical conjunction
+	 */
+	public Condition and(Condition other) {
+		return apply(OP_AND, this, other);
+	}
+
+	/**
+	 * Gets the disjunction of this condition and the given one
+	 *
+	 * @param other
+	 *            The other condition
+	 * @return The canonical disjunction
+	 */
+	public Condition or(Condition other) {
+		return apply(OP_OR, this, other);
+	}
+
+	/**
+	 * Gets the negation of this condition
+	 *
+	 * @return The canonical negation
+	 */
+	public Condition not() {
+		if (this == TRUE)
+			return FALSE;
+		if (this == FALSE)
+			return TRUE;
+		Condition cached = lookup(OP_NOT, this, this);
+		if (cached != null)
+			return cached;
+		Condition res = mk(var, low.not(), high.not());
+		store(OP_NOT, this, this, res);
+		return res;
+	}
+
+	private static Condition apply(int op, Condition a, Condition b) {
+		if (op == OP_AND) {
+			if (a == FALSE || b == FALSE)
+				return FALSE;
+			if (a == TRUE)
+				return b;
+			if (b == TRUE || a == b)
+				return a;
+		} else {
+			if (a == TRUE || b == TRUE)
+				return TRUE;
+			if (a == FALSE)
+				return b;
+			if (b == FALSE || a == b)
+				return a;
+		}
+
+		// Both operations are commutative
+		if (a.id > b.id) {
+			Condition tmp = a;
+			a = b;
+			b = tmp;
+		}
+		Condition cached = lookup(op, a, b);
+		if (cached != null)
+			return cached;
+
+		Atom top = a.var.id <= b.var.id ? a.var : b.var;
+		Condition aLow = a.var == top ? a.low : a;
+		Condition aHigh = a.var == top ? a.high : a;
+		Condition bLow = b.var == top ? b.low : b;
+		Condition bHigh = b.var == top ? b.high : b;
+		Condition res = mk(top, apply(op, aLow, bLow),
+				apply(op, aHigh, bHigh));
+		store(op, a, b, res);
+		return res;
+	}
+
+	private static int cacheIndex(int op, Condition a, Condition b) {
+		int h = (a.id * 31 + b.id) * 31 + op;
+		h ^= h >>> 16;
+		return h & (CACHE_SIZE - 1);
+	}
+
+	private static Condition lookup(int op, Condition a, Condition b) {
+		CacheEntry e = cache[cacheIndex(op, a, b)];
+		if (e != null && e.op == op && e.left == a && e.right == b)
+			return e.result;
+		return null;
+	}
+
+	private static void store(int op, Condition a, Condition b, Condition res) {
+		cache[cacheIndex(op, a, b)] = new CacheEntry(op, a, b, res);
+	}
+
+	public boolean isTrue() {
+		return this == TRUE;
+	}
+
+	public boolean isFalse() {
+		return this == FALSE;
+	}
+
+	/**
+	 * Gets a disjunctive normal form of this condition. The conjunctions are
+	 * the paths to the TRUE terminal of the diagram that tests the atoms in
+	 * the order of their contents, so the result does not depend on the
+	 * creation order of the atoms.
+	 *
+	 * @return The list of conjunctions whose disjunction is this condition
+	 */
+	public List<List<Literal>> toDNF() {
+		List<Atom> vars = new ArrayList<Atom>(getSupport(this));
+		Collections.sort(vars, ATOM_ORDER);
+		List<List<Literal>> dnf = new ArrayList<List<Literal>>();
+		collectPaths(this, vars, 0, new ArrayList<Literal>(), dnf);
+		return dnf;
+	}
+
+	private static void collectPaths(Condition node, List<Atom> vars, int i,
+			List<Literal> path, List<List<Literal>> dnf) {
+		if (node == FALSE)
+			return;
+		if (node == TRUE) {
+			dnf.add(new ArrayList<Literal>(path));
+			return;
+		}
+		// Skip the atoms the condition does not depend on
+		Set<Atom> support = getSupport(node);
+		while (!support.contains(vars.get(i)))
+			i++;
+		Atom var = vars.get(i);
+		path.add(var.literal(false));
+		collectPaths(restrict(node, var, false), vars, i + 1, path, dnf);
+		path.set(path.size() - 1, var.literal(true));
+		collectPaths(restrict(node, var, true), vars, i + 1, path, dnf);
+		path.remove(path.size() - 1);
+	}
+
+	/**
+	 * Gets the atoms tested anywhere in the given condition
+	 */
+	private static Set<Atom> getSupport(Condition cond) {
+		Set<Atom> support = new HashSet<Atom>();
+		Set<Condition> done = new HashSet<Condition>();
+		List<Condition> workList = new ArrayList<Condition>();
+		workList.add(cond);
+		while (!workList.isEmpty()) {
+			Condition node = workList.remove(workList.size() - 1);
+			if (node.var == null || !done.add(node))
+				continue;
+			support.add(node.var);
+			workList.add(node.low);
+			workList.add(node.high);
+		}
+		return support;
+	}
+
+	/**
+	 * Gets the condition that results from fixing the given atom to the given
+	 * value
+	 */
+	private static Condition restrict(Condition cond, Atom var, boolean value) {
+		return restrict(cond, var, value, new HashMap<Condition, Condition>());
+	}
+
+	private static Condition restrict(Condition node, Atom var, boolean value,
+			Map<Condition, Condition> done) {
+		// Nodes below the atom in the variable order cannot test it
+		if (node.var == null || node.var.id > var.id)
+			return node;
+		if (node.var == var)
+			return value ? node.high : node.low;
+		Condition res = done.get(node);
+		if (res == null) {
+			res = mk(node.var, restrict(node.low, var, value, done),
+					restrict(node.high, var, value, done));
+			done.put(node, res);
+		}
+		return res;
+	}
+
+	/**
+	 * Renders this condition as a disjunction of conjunctions
+	 *
+	 * @param and
+	 *            The separator to put between two literals
+	 * @param or
+	 *            The separator to put between two conjunctions
+	 * @return The textual form of this condition
+	 */
+	public String render(String and, String or) {
+		if (this == TRUE)
+			return "true";
+		if (this == FALSE)
+			return "false";
+		List<List<Literal>> dnf = toDNF();
+		StringBuilder sb = new StringBuilder();
+		for (List<Literal> conj : dnf) {
+			if (sb.length() > 0)
+				sb.append(or);
+			boolean parens = dnf.size() > 1 && conj.size() > 1;
+			if (parens)
+				sb.append("(");
+			for (int i = 0; i < conj.size(); i++) {
+				if (i > 0)
+					sb.append(and);
+				sb.append(conj.get(i));
+			}
+			if (parens)
+				sb.append(")");
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return render(" AND ", " OR ");
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		// Reduced nodes are unique, so only the unique table needs structural
+		// equality
+		if (this == obj)
+			return true;
+		if (!(obj instanceof Condition))
+			return false;
+		Condition other = (Condition) obj;
+		return var != null && var == other.var && low == other.low
+				&& high == other.high;
+	}
+
+}
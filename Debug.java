@@ -1,5 +1,9 @@
 package soot.jimple.infoflow;
 
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 public class Debug {
 	enum DebugLevel {
 		None(0), Error(5), Warning(10), Info(20), All(30);
@@ -15,26 +19,173 @@ public class Debug {
 		}
 	}
 
+	/**
+	 * Lazily computed debug message. Only evaluated if the message is actually
+	 * printed.
+	 */
+	public interface MessageSupplier {
+		public String get();
+	}
+
 	public static DebugLevel DEBUG_LEVEL = DebugLevel.None;
 
+	// Trace buffer, null while tracing is disabled
+	private static volatile TraceBuffer traceBuffer = null;
+
 	private Debug() {
 	}
 
+	public static boolean isEnabled(DebugLevel lvl) {
+		return DEBUG_LEVEL.getLevel() >= lvl.getLevel();
+	}
+
+	public static boolean isInfoEnabled() {
+		return isEnabled(DebugLevel.Info);
+	}
+
 	public static void debug(DebugLevel lvl, String s) {
-		if (DEBUG_LEVEL.getLevel() >= lvl.getLevel()) {
+		if (isEnabled(lvl)) {
 			System.out.println(s);
 		}
 	}
 
+	/**
+	 * Prints the given prefix followed by the given object. The object is only
+	 * converted to a string if the message is actually printed.
+	 */
+	public static void debug(DebugLevel lvl, String prefix, Object obj) {
+		if (isEnabled(lvl)) {
+			System.out.println(prefix + obj);
+		}
+	}
+
+	public static void debug(DebugLevel lvl, MessageSupplier msg) {
+		if (isEnabled(lvl)) {
+			System.out.println(msg.get());
+		}
+	}
+
 	public static void debugInfo(String s) {
 		debug(DebugLevel.Info, s);
 	}
 
+	public static void debugInfo(String prefix, Object obj) {
+		debug(DebugLevel.Info, prefix, obj);
+	}
+
+	public static void debugInfo(MessageSupplier msg) {
+		debug(DebugLevel.Info, msg);
+	}
+
 	public static void debugWarning(String s) {
 		debug(DebugLevel.Warning, s);
 	}
 
+	public static void debugWarning(String prefix, Object obj) {
+		debug(DebugLevel.Warning, prefix, obj);
+	}
+
 	public static void debugError(String s) {
 		debug(DebugLevel.Error, s);
 	}
+
+	/**
+	 * Enables tracing into an in-memory ring buffer. Once the buffer is full,
+	 * the oldest events are overwritten.
+	 *
+	 * @param capacity
+	 *            The number of events to keep
+	 */
+	public static void enableTrace(int capacity) {
+		traceBuffer = new TraceBuffer(capacity);
+	}
+
+	/**
+	 * Disables tracing and drops all recorded events
+	 */
+	public static void disableTrace() {
+		traceBuffer = null;
+	}
+
+	public static boolean isTraceEnabled() {
+		return traceBuffer != null;
+	}
+
+	/**
+	 * Records a trace event. The subject is only converted to a string when
+	 * the trace is dumped, so recording an event does not format anything.
+	 *
+	 * @param event
+	 *            The kind of event, e.g. "INTENTSRC"
+	 * @param subject
+	 *            The object the event is about, e.g. a statement
+	 */
+	public static void trace(String event, Object subject) {
+		TraceBuffer buffer = traceBuffer;
+		if (buffer != null)
+			buffer.add(new TraceEvent(System.nanoTime(), Thread
+					.currentThread().getId(), event, subject));
+	}
+
+	/**
+	 * Writes all events currently in the trace buffer to the given stream,
+	 * oldest first
+	 *
+	 * @param out
+	 *            The stream to write to
+	 */
+	public static void dumpTrace(PrintStream out) {
+		TraceBuffer buffer = traceBuffer;
+		if (buffer != null)
+			buffer.dump(out);
+	}
+
+	private static class TraceEvent {
+		private final long time;
+		private final long threadId;
+		private final String event;
+		private final Object subject;
+
+		public TraceEvent(long time, long threadId, String event,
+				Object subject) {
+			this.time = time;
+			this.threadId = threadId;
+			this.event = event;
+			this.subject = subject;
+		}
+
+		@Override
+		public String toString() {
+			return time + " [" + threadId + "] " + event + " " + subject;
+		}
+	}
+
+	/**
+	 * Ring buffer of trace events. Writers claim a slot with a single atomic
+	 * increment and never block each other.
+	 */
+	private static class TraceBuffer {
+		private final AtomicReferenceArray<TraceEvent> events;
+		private final AtomicLong next = new AtomicLong();
+
+		public TraceBuffer(int capacity) {
+			this.events = new AtomicReferenceArray<TraceEvent>(Math.max(1,
+					capacity));
+		}
+
+		public void add(TraceEvent event) {
+			long idx = next.getAndIncrement();
+			events.set((int) (idx % events.length()), event);
+		}
+
+		public void dump(PrintStream out) {
+			long end = next.get();
+			long start = Math.max(0, end - events.length());
+			for (long i = start; i < end; i++) {
+				TraceEvent event = events.get((int) (i % events.length()));
+				if (event != null)
+					out.println(event);
+			}
+		}
+	}
 }
@@ -9,10 +9,11 @@
  ******************************************************************************/
 package soot.jimple.infoflow;
 
-import heros.solver.CountingThreadPoolExecutor;
-
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -22,25 +23,23 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import soot.Body;
-import soot.Hierarchy;
 import soot.MethodOrMethodContext;
 import soot.PackManager;
-import soot.PatchingChain;
 import soot.Scene;
-import soot.SceneTransformer;
 import soot.SootClass;
 import soot.SootMethod;
 import soot.Transform;
 import soot.Unit;
 import soot.jimple.Stmt;
-import soot.jimple.StringConstant;
 import soot.jimple.infoflow.InfoflowResults.SinkInfo;
 import soot.jimple.infoflow.InfoflowResults.SourceInfo;
 import soot.jimple.infoflow.aliasing.FlowSensitiveAliasStrategy;
@@ -63,13 +62,10 @@ import soot.jimple.infoflow.solver.BackwardsInfoflowCFG;
 import soot.jimple.infoflow.solver.IInfoflowCFG;
 import soot.jimple.infoflow.solver.fastSolver.InfoflowSolver;
 import soot.jimple.infoflow.source.ISourceSinkManager;
-import soot.jimple.infoflow.util.IntentTag;
 import soot.jimple.infoflow.util.SootMethodRepresentationParser;
 import soot.jimple.infoflow.util.SystemClassHandler;
-import soot.jimple.internal.AbstractInvokeExpr;
 import soot.jimple.toolkits.callgraph.ReachableMethods;
 import soot.options.Options;
-import soot.toolkits.graph.ExceptionalUnitGraph;
 
 /**
  * main infoflow class which triggers the analysis and offers method to
@@ -80,6 +76,19 @@ public class Infoflow extends AbstractInfoflow {
 
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
+	/**
+	 * The maximum time to wait for the solver threads after a solver has
+	 * returned
+	 */
+	private static final int EXECUTOR_TIMEOUT_SECONDS = 5;
+
+	/**
+	 * The number of chunks per worker thread into which the methods are split
+	 * for the source and sink scan. More chunks than threads let the workers
+	 * balance methods of very different sizes.
+	 */
+	private static final int SCAN_CHUNKS_PER_THREAD = 4;
+
 	private static int accessPathLength = 5;
 	private static boolean useRecursiveAccessPaths = true;
 	private static boolean pathAgnosticResults = true;
@@ -96,6 +105,18 @@ public class Infoflow extends AbstractInfoflow {
 
 	private IInfoflowCFG iCfg;
 
+	private int taggerThreadNum = -1;
+	private boolean taggerSummaries = false;
+	private String taggerCacheDir = null;
+	private BooleanExpressionTagger tagger = null;
+
+	private boolean speculativeForwardPhase = false;
+	private boolean parallelSeedCollection = false;
+	private boolean parallelSourceSinkScan = false;
+
+	private final PhaseProfiler profiler = new PhaseProfiler();
+	private String profileReportFile = null;
+
 	private Set<ResultsAvailableHandler> onResultsAvailable = new HashSet<ResultsAvailableHandler>();
 	private Set<TaintPropagationHandler> taintPropagationHandlers = new HashSet<TaintPropagationHandler>();
 
@@ -193,6 +214,11 @@ public class Infoflow extends AbstractInfoflow {
 		// reset Soot:
 		logger.info("Resetting Soot...");
 		soot.G.reset();
+		AktAnnotations.reset();
+		Condition.reset();
+		AndroidFlowProcessor.reset();
+		StatementClassifier.reset();
+		iCfg = null;
 
 		Options.v().set_no_bodies_for_excluded(true);
 		Options.v().set_allow_phantom_refs(true);
@@ -303,7 +329,10 @@ public class Infoflow extends AbstractInfoflow {
 		Set<String> requiredClasses = SootMethodRepresentationParser.v()
 				.parseClassNames(entryPointCreator.getRequiredClasses(), false)
 				.keySet();
+		profiler.reset();
+		PhaseProfiler.Phase initPhase = profiler.start("soot-init");
 		initializeSoot(appPath, libPath, requiredClasses);
+		initPhase.end();
 
 		// entryPoints are the entryPoints required by Soot to calculate Graph -
 		// if there is no main method,
@@ -317,37 +346,189 @@ public class Infoflow extends AbstractInfoflow {
 
 		// We explicitly select the packs we want to run for performance reasons
 		if (callgraphAlgorithm != CallgraphAlgorithm.OnDemand) {
-			PackManager.v().getPack("wjpp").apply();
-			PackManager.v().getPack("cg").apply();
+			applyPack("wjpp");
+			applyPack("cg");
 			//PackManager.v().getPack("wjap").apply();
 		}
 
-		PackManager.v().getPack("wjap").apply();
+		// The tagger may already build the ICFG, so the preprocessors must
+		// have run before
+		runPreProcessors();
+		applyPack("wjap");
 		runAnalysis(sourcesSinks, null);
+		writeProfileReport();
 
 		if (logger.isDebugEnabled())
 			PackManager.v().writeOutput();
 	}
 
 	private void addBooleanExpressionTagger() {
-		PackManager.v().getPack("wjap")
-				.add(new Transform("wjap.myTransform", new SceneTransformer() {
-
-					@Override
-					protected void internalTransform(String phaseName,
-							Map<String, String> options) {
-						for (SootClass sc : Scene.v().getClasses()) {
-							for (SootMethod m : sc.getMethods()) {
-								try {
-									Body b = m.retrieveActiveBody();
-									new AktAnalysis(new ExceptionalUnitGraph(b));
-								} catch (Exception e) {
-									continue;
-								}
-							}
-						}
-					}
-				}));
+		tagger = new BooleanExpressionTagger(
+				getTaggerThreadNum(), taggerSummaries) {
+
+			@Override
+			protected Collection<SootMethod> getMethodsToTag() {
+				return getMethodsForTagging();
+			}
+
+		};
+		if (taggerCacheDir != null)
+			tagger.setCache(new AktAnalysisCache(new File(taggerCacheDir)));
+		PackManager.v().getPack("wjap").add(
+				new Transform("wjap.myTransform", tagger));
+	}
+
+	/**
+	 * Gets the methods on which the boolean expression tagger shall run. We
+	 * only consider the methods that are also scanned for sources and sinks,
+	 * i.e., those reachable from the entry points, since tags on all other
+	 * units are never read.
+	 * 
+	 * @return The methods on which to run the boolean expression tagger
+	 */
+	private Collection<SootMethod> getMethodsForTagging() {
+		// Without a callgraph, the reachable methods are computed on the ICFG
+		if (!Scene.v().hasCallGraph() && iCfg == null)
+			iCfg = icfgFactory.buildBiDirICFG(callgraphAlgorithm);
+
+		List<SootMethod> methods = new ArrayList<SootMethod>();
+		for (SootMethod sm : getMethodsForSeeds(iCfg)) {
+			if (ignoreFlowsInSystemPackages
+					&& SystemClassHandler.isClassInSystemPackage(sm
+							.getDeclaringClass().getName()))
+				continue;
+			methods.add(sm);
+		}
+		logger.info("Tagging boolean expressions in {} methods",
+				methods.size());
+		return methods;
+	}
+
+	/**
+	 * Gets the number of threads to be used for tagging boolean expressions.
+	 * If no explicit value has been configured, this falls back to the
+	 * number of processors, capped by the maximum thread number.
+	 * 
+	 * @return The number of threads to be used for tagging boolean
+	 *         expressions
+	 */
+	private int getTaggerThreadNum() {
+		if (taggerThreadNum > 0)
+			return taggerThreadNum;
+		return getThreadNum();
+	}
+
+	/**
+	 * Sets the number of threads to be used for tagging boolean expressions
+	 * in the wjap phase
+	 * 
+	 * @param taggerThreadNum
+	 *            The parallelism level of the boolean expression tagger, or -1
+	 *            to derive it from the number of available processors
+	 */
+	public void setTaggerThreadNum(int taggerThreadNum) {
+		this.taggerThreadNum = taggerThreadNum;
+	}
+
+	/**
+	 * Sets whether the boolean expression tagger shall compute method
+	 * summaries bottom-up in the call graph and apply them at call sites, so
+	 * that intent properties returned by helper methods are tracked as well
+	 * 
+	 * @param taggerSummaries
+	 *            True to enable method summaries in the boolean expression
+	 *            tagger, otherwise false
+	 */
+	public void setTaggerSummaries(boolean taggerSummaries) {
+		this.taggerSummaries = taggerSummaries;
+	}
+
+	/**
+	 * Sets the directory in which the boolean expression tagger caches its
+	 * results. Method bodies whose Jimple code did not change since a previous
+	 * run are not analyzed again, their results are read from the cache.
+	 * 
+	 * @param taggerCacheDir
+	 *            The cache directory, or null to disable caching
+	 */
+	public void setTaggerCacheDir(String taggerCacheDir) {
+		this.taggerCacheDir = taggerCacheDir;
+	}
+
+	/**
+	 * Sets whether the regular forward phase shall be solved speculatively
+	 * while the static-field phase is still running. If the static phase finds
+	 * flows into static fields, the speculative results are thrown away and
+	 * the forward phase is solved a second time, so this costs up to twice
+	 * the time of the forward phase. The sink points of the static phase are
+	 * not streamed into the running forward phase, and it has not been shown
+	 * that the speculation is a net win over solving the phases one after
+	 * the other. It is therefore disabled by default.
+	 * 
+	 * @param speculativeForwardPhase
+	 *            True to start the forward phase before the static phase is
+	 *            done, false to run them one after the other
+	 */
+	public void setSpeculativeForwardPhase(boolean speculativeForwardPhase) {
+		this.speculativeForwardPhase = speculativeForwardPhase;
+	}
+
+	/**
+	 * Sets whether the methods reachable from the entry points shall be
+	 * collected on multiple threads if there is no callgraph. Method bodies
+	 * are then loaded concurrently, so this requires a Soot front end that
+	 * supports it.
+	 * 
+	 * @param parallelSeedCollection
+	 *            True to look up the callees of the methods in parallel,
+	 *            false to look them up on the current thread
+	 */
+	public void setParallelSeedCollection(boolean parallelSeedCollection) {
+		this.parallelSeedCollection = parallelSeedCollection;
+	}
+
+	/**
+	 * Sets whether the methods shall be scanned for sources and sinks on
+	 * multiple threads. The source and sink manager is then queried
+	 * concurrently, so this requires an implementation of it that is
+	 * thread-safe.
+	 * 
+	 * @param parallelSourceSinkScan
+	 *            True to scan the methods in parallel, false to scan them on
+	 *            the current thread
+	 */
+	public void setParallelSourceSinkScan(boolean parallelSourceSinkScan) {
+		this.parallelSourceSinkScan = parallelSourceSinkScan;
+	}
+
+	/**
+	 * Sets the file to which a JSON report with the wall time, CPU time,
+	 * allocated bytes and a bound on the peak heap usage of every analysis
+	 * phase is written after each run
+	 * 
+	 * @param profileReportFile
+	 *            The report file, or null to not write a report
+	 */
+	public void setProfileReportFile(String profileReportFile) {
+		this.profileReportFile = profileReportFile;
+	}
+
+	/**
+	 * Gets the boolean expression tagger of the last analysis run
+	 * 
+	 * @return The tagger, or null if no analysis has been run yet
+	 */
+	public BooleanExpressionTagger getBooleanExpressionTagger() {
+		return tagger;
+	}
+
+	/**
+	 * Gets the profiler that measures the phases of the analysis runs
+	 * 
+	 * @return The phase profiler of this analysis
+	 */
+	public PhaseProfiler getPhaseProfiler() {
+		return profiler;
 	}
 
 	@Override
@@ -358,9 +539,12 @@ public class Infoflow extends AbstractInfoflow {
 			return;
 		}
 
+		profiler.reset();
+		PhaseProfiler.Phase initPhase = profiler.start("soot-init");
 		initializeSoot(appPath, libPath, SootMethodRepresentationParser.v()
 				.parseClassNames(Collections.singletonList(entryPoint), false)
 				.keySet(), entryPoint);
+		initPhase.end();
 
 		if (!Scene.v().containsMethod(entryPoint)) {
 			logger.error("Entry point not found: " + entryPoint);
@@ -386,150 +570,96 @@ public class Infoflow extends AbstractInfoflow {
 
 		// We explicitly select the packs we want to run for performance reasons
 		if (callgraphAlgorithm != CallgraphAlgorithm.OnDemand) {
-			PackManager.v().getPack("wjpp").apply();
-			PackManager.v().getPack("cg").apply();
+			applyPack("wjpp");
+			applyPack("cg");
 			//PackManager.v().getPack("wjap").apply();
 		}
 
+		// The tagger may already build the ICFG, so the preprocessors must
+		// have run before
+		runPreProcessors();
+		applyPack("wjap");
 		runAnalysis(sourcesSinks, seeds);
+		writeProfileReport();
 		if (logger.isDebugEnabled())
 			PackManager.v().writeOutput();
 	}
 
-	private void runAnalysis(final ISourceSinkManager sourcesSinks,
-			final Set<String> additionalSeeds) {
-		// Run the preprocessors
+	/**
+	 * Runs the preprocessors. This has to happen before the boolean
+	 * expression tagger runs, since the ICFG it builds is reused by the
+	 * analysis and must reflect the changes of the preprocessors.
+	 */
+	private void runPreProcessors() {
 		for (Transform tr : preProcessors)
 			tr.apply();
+	}
 
-		if (callgraphAlgorithm != CallgraphAlgorithm.OnDemand)
-			logger.info("Callgraph has {} edges", Scene.v().getCallGraph()
-					.size());
-		iCfg = icfgFactory.buildBiDirICFG(callgraphAlgorithm);
-
-		int numThreads = Runtime.getRuntime().availableProcessors();
-		CountingThreadPoolExecutor executor = createExecutor(numThreads);
-		CountingThreadPoolExecutor staticExecutor = createExecutor(numThreads);
-
-		BackwardsInfoflowProblem backProblem, staticBackProblem;
-		InfoflowSolver backSolver, staticBackSolver;
-		final IAliasingStrategy aliasingStrategy, staticAliasingStrategy;
-		switch (aliasingAlgorithm) {
-		case FlowSensitive:
-			backProblem = new BackwardsInfoflowProblem(
-					new BackwardsInfoflowCFG(iCfg), sourcesSinks);
-			staticBackProblem = new BackwardsInfoflowProblem(
-					new BackwardsInfoflowCFG(iCfg), sourcesSinks);
-			// need to set this before creating the zero abstraction
-			backProblem.setFlowSensitiveAliasing(flowSensitiveAliasing);
-			staticBackProblem.setFlowSensitiveAliasing(flowSensitiveAliasing);
-
-			backSolver = new InfoflowSolver(backProblem, executor);
-			backSolver.setJumpPredecessors(!computeResultPaths);
-
-			staticBackSolver = new InfoflowSolver(staticBackProblem, executor);
-			staticBackSolver.setJumpPredecessors(!computeResultPaths);
-
-			// backSolver.setEnableMergePointChecking(true);
-
-			aliasingStrategy = new FlowSensitiveAliasStrategy(iCfg, backSolver);
-			staticAliasingStrategy = new FlowSensitiveAliasStrategy(iCfg,
-					staticBackSolver);
-			break;
-		case PtsBased:
-			backProblem = null;
-			backSolver = null;
-			staticBackProblem = null;
-			staticBackSolver = null;
-			aliasingStrategy = new PtsBasedAliasStrategy(iCfg);
-			staticAliasingStrategy = new PtsBasedAliasStrategy(iCfg);
-			break;
-		default:
-			throw new RuntimeException("Unsupported aliasing algorithm");
+	/**
+	 * Applies the Soot pack with the given name as a separate profiling phase
+	 * 
+	 * @param packName
+	 *            The name of the pack to apply
+	 */
+	private void applyPack(String packName) {
+		PhaseProfiler.Phase phase = profiler.start(packName);
+		try {
+			PackManager.v().getPack(packName).apply();
+		} finally {
+			phase.end();
 		}
+	}
 
-		InfoflowProblem forwardProblem = new InfoflowProblem(iCfg,
-				sourcesSinks, aliasingStrategy);
-		InfoflowProblem staticForwardProblem = new InfoflowProblem(iCfg,
-				sourcesSinks, staticAliasingStrategy);
-
-		// need to set this before creating the zero abstraction
-		forwardProblem.setFlowSensitiveAliasing(flowSensitiveAliasing);
-		staticForwardProblem.setFlowSensitiveAliasing(flowSensitiveAliasing);
-		if (backProblem != null)
-			forwardProblem.setZeroValue(backProblem.createZeroValue());
-
-		// Set the options
-		InfoflowSolver forwardSolver = new InfoflowSolver(forwardProblem,
-				executor);
-		InfoflowSolver staticForwardSolver = new InfoflowSolver(
-				staticForwardProblem, staticExecutor);
-
-		aliasingStrategy.setForwardSolver(forwardSolver);
-		forwardSolver.setJumpPredecessors(!computeResultPaths);
-		// forwardSolver.setEnableMergePointChecking(true);
-
-		forwardProblem.setInspectSources(inspectSources);
-		forwardProblem.setInspectSinks(inspectSinks);
-		forwardProblem.setEnableImplicitFlows(enableImplicitFlows);
-		forwardProblem.setEnableStaticFieldTracking(enableStaticFields);
-		forwardProblem.setEnableExceptionTracking(enableExceptions);
-		for (TaintPropagationHandler tp : taintPropagationHandlers)
-			forwardProblem.addTaintPropagationHandler(tp);
-		forwardProblem.setTaintWrapper(taintWrapper);
-		forwardProblem.setStopAfterFirstFlow(stopAfterFirstFlow);
-		forwardProblem
-				.setIgnoreFlowsInSystemPackages(ignoreFlowsInSystemPackages);
-
-		aliasingStrategy.setForwardSolver(staticForwardSolver);
-		staticForwardSolver.setJumpPredecessors(!computeResultPaths);
-		// forwardSolver.setEnableMergePointChecking(true);
-
-		staticForwardProblem.setInspectSources(inspectSources);
-		staticForwardProblem.setInspectSinks(inspectSinks);
-		staticForwardProblem.setEnableImplicitFlows(enableImplicitFlows);
-		staticForwardProblem.setEnableStaticFieldTracking(enableStaticFields);
-		staticForwardProblem.setEnableExceptionTracking(enableExceptions);
-		for (TaintPropagationHandler tp : taintPropagationHandlers)
-			staticForwardProblem.addTaintPropagationHandler(tp);
-
-		staticForwardProblem.setTaintWrapper(taintWrapper);
-		staticForwardProblem.setStopAfterFirstFlow(stopAfterFirstFlow);
-		staticForwardProblem
-				.setIgnoreFlowsInSystemPackages(ignoreFlowsInSystemPackages);
-		staticForwardProblem.setIdentifyStaticFields(true);
+	/**
+	 * Writes the profile of the last run to the configured report file, if
+	 * any
+	 */
+	private void writeProfileReport() {
+		if (profileReportFile == null)
+			return;
+		try {
+			profiler.writeReport(profileReportFile);
+			logger.info("Phase profile written to {}", profileReportFile);
+		} catch (IOException ex) {
+			logger.error("Could not write phase profile", ex);
+		}
+	}
 
-		if (backProblem != null) {
-			backProblem.setForwardSolver((InfoflowSolver) forwardSolver);
-			backProblem.setTaintWrapper(taintWrapper);
-			backProblem.setEnableStaticFieldTracking(enableStaticFields);
-			backProblem.setEnableExceptionTracking(enableExceptions);
-			for (TaintPropagationHandler tp : taintPropagationHandlers)
-				backProblem.addTaintPropagationHandler(tp);
-			backProblem.setTaintWrapper(taintWrapper);
-			backProblem.setActivationUnitsToCallSites(forwardProblem);
-			backProblem
-					.setIgnoreFlowsInSystemPackages(ignoreFlowsInSystemPackages);
-			backProblem.setInspectSources(inspectSources);
-			backProblem.setInspectSinks(inspectSinks);
+	private void runAnalysis(final ISourceSinkManager sourcesSinks,
+			final Set<String> additionalSeeds) {
+		// All solvers share one set of worker threads
+		SolverScheduler scheduler = new SolverScheduler(getThreadNum());
+		try {
+			runAnalysis(sourcesSinks, additionalSeeds, scheduler);
+		} finally {
+			scheduler.shutdown();
+		}
+	}
 
-			staticBackProblem.setForwardSolver((InfoflowSolver) forwardSolver);
-			staticBackProblem.setTaintWrapper(taintWrapper);
-			staticBackProblem.setEnableStaticFieldTracking(enableStaticFields);
-			staticBackProblem.setEnableExceptionTracking(enableExceptions);
-			for (TaintPropagationHandler tp : taintPropagationHandlers)
-				staticBackProblem.addTaintPropagationHandler(tp);
-			staticBackProblem.setTaintWrapper(taintWrapper);
-			staticBackProblem.setActivationUnitsToCallSites(forwardProblem);
-			staticBackProblem
-					.setIgnoreFlowsInSystemPackages(ignoreFlowsInSystemPackages);
-			staticBackProblem.setInspectSources(inspectSources);
-			staticBackProblem.setInspectSinks(inspectSinks);
+	private void runAnalysis(final ISourceSinkManager sourcesSinks,
+			final Set<String> additionalSeeds, SolverScheduler scheduler) {
+		if (callgraphAlgorithm != CallgraphAlgorithm.OnDemand)
+			logger.info("Callgraph has {} edges", Scene.v().getCallGraph()
+					.size());
+		// The ICFG may already have been built for the boolean expression
+		// tagger
+		if (iCfg == null) {
+			PhaseProfiler.Phase icfgPhase = profiler.start("icfg");
+			iCfg = icfgFactory.buildBiDirICFG(callgraphAlgorithm);
+			icfgPhase.end();
 		}
 
+		// Every phase gets its own executor, so that we can tell when the
+		// solvers of that phase are done
+		SolverPhase forward = createSolverPhase(sourcesSinks,
+				scheduler.newPhase("forward"), false);
+		SolverPhase staticForward = createSolverPhase(sourcesSinks,
+				scheduler.newPhase("static-forward"), true);
+
 		if (!enableStaticFields)
 			logger.warn("Static field tracking is disabled, results may be incomplete");
-		if (!flowSensitiveAliasing || !aliasingStrategy.isFlowSensitive())
+		if (!flowSensitiveAliasing
+				|| !forward.aliasingStrategy.isFlowSensitive())
 			logger.warn("Using flow-insensitive alias tracking, results may be imprecise");
 
 		// We have to look through the complete program to find sources
@@ -537,10 +667,18 @@ public class Infoflow extends AbstractInfoflow {
 		int sinkCount = 0;
 		logger.info("Looking for sources and sinks...");
 
-		for (SootMethod sm : getMethodsForSeeds(iCfg)) {
-			sinkCount += scanMethodForSourcesSinks(sourcesSinks,
-					forwardProblem, staticForwardProblem, sm);
+		PhaseProfiler.Phase scanPhase = profiler.start("source-sink-scan");
+		for (MethodSeeds ms : scanMethodsForSourcesSinks(sourcesSinks,
+				getMethodsForSeeds(iCfg), scheduler)) {
+			for (Unit u : ms.staticSeeds)
+				staticForward.forwardProblem.addInitialSeeds(u, Collections
+						.singleton(staticForward.forwardProblem.zeroValue()));
+			for (Unit u : ms.seeds)
+				forward.forwardProblem.addInitialSeeds(u, Collections
+						.singleton(forward.forwardProblem.zeroValue()));
+			sinkCount += ms.sinkCount;
 		}
+		scanPhase.end();
 
 		// We optionally also allow additional seeds to be specified
 		if (additionalSeeds != null)
@@ -550,73 +688,50 @@ public class Infoflow extends AbstractInfoflow {
 					logger.warn("Seed method {} has no active body", m);
 					continue;
 				}
-				forwardProblem.addInitialSeeds(m.getActiveBody().getUnits()
-						.getFirst(),
-						Collections.singleton(forwardProblem.zeroValue()));
+				forward.forwardProblem.addInitialSeeds(m.getActiveBody()
+						.getUnits().getFirst(), Collections
+						.singleton(forward.forwardProblem.zeroValue()));
 			}
 
-		if (!forwardProblem.hasInitialSeeds() || sinkCount == 0) {
+		if (!forward.forwardProblem.hasInitialSeeds() || sinkCount == 0) {
 			logger.error("No sources or sinks found, aborting analysis");
 			return;
 		}
 
-		int terminateTries;
-		Set<AbstractionAtSink> res;
+		logger.info("Source lookup done, found {} sources and {} sinks.",
+				forward.forwardProblem.getInitialSeeds().size(), sinkCount);
 
-		logger.info("Starting with the Static Forward Solving...");
-
-		if (staticForwardProblem.hasInitialSeeds() && sinkCount != 0) {
-			staticForwardSolver.solve();
-
-			terminateTries = 0;
-			while (terminateTries < 10) {
-				if (staticExecutor.getActiveCount() != 0
-						|| !staticExecutor.isTerminated()) {
-					terminateTries++;
-					try {
-						Thread.sleep(500);
-					} catch (InterruptedException e) {
-						logger.error("Could not wait for executor termination",
-								e);
-					}
-				} else
-					break;
-			}
-			if (staticExecutor.getActiveCount() != 0
-					|| !staticExecutor.isTerminated())
-				logger.error("Executor did not terminate gracefully");
+		Set<AbstractionAtSink> res;
 
-			staticForwardSolver.cleanup();
-			staticBackSolver.cleanup();
+		// Only the results of the static phase are needed later on, which the
+		// forward problem references. The phase itself is dropped, so that
+		// its problems and solvers do not stay reachable for the rest of the
+		// run.
+		if (!staticForward.forwardProblem.hasInitialSeeds()) {
+			logger.info("Skipping static phase");
+			forward.forwardProblem.setExtraSinkPoints(staticForward.forwardProblem
+					.getResults());
+			staticForward.cleanup();
+			staticForward = null;
+			solveForward(forward, "forward");
+		} else if (!speculativeForwardPhase) {
+			logger.info("Starting with the Static Forward Solving...");
+			solveForward(staticForward, "static-forward");
+			forward.forwardProblem.setExtraSinkPoints(staticForward.forwardProblem
+					.getResults());
+			staticForward.cleanup();
+			staticForward = null;
 			AccessPath.clearBaseRegister();
 			Runtime.getRuntime().gc();
-		} else {
-			logger.info("Skipping static phase");
-		}
 
-		logger.info("Source lookup done, found {} sources and {} sinks.",
-				forwardProblem.getInitialSeeds().size(), sinkCount);
-
-		forwardProblem.setExtraSinkPoints(staticForwardProblem.getResults());
-		forwardSolver.solve();
-
-		// Not really nice, but sometimes Heros returns before all
-		// executor tasks are actually done. This way, we give it a
-		// chance to terminate gracefully before moving on.
-		terminateTries = 0;
-		while (terminateTries < 10) {
-			if (executor.getActiveCount() != 0 || !executor.isTerminated()) {
-				terminateTries++;
-				try {
-					Thread.sleep(500);
-				} catch (InterruptedException e) {
-					logger.error("Could not wait for executor termination", e);
-				}
-			} else
-				break;
+			solveForward(forward, "forward");
+		} else {
+			logger.info("Solving the forward phase speculatively while the "
+					+ "static phase is running...");
+			forward = solveSpeculatively(sourcesSinks, scheduler, forward,
+					staticForward);
+			staticForward = null;
 		}
-		if (executor.getActiveCount() != 0 || !executor.isTerminated())
-			logger.error("Executor did not terminate gracefully");
 
 		// Print taint wrapper statistics
 		if (taintWrapper != null) {
@@ -625,29 +740,26 @@ public class Infoflow extends AbstractInfoflow {
 					+ taintWrapper.getWrapperMisses());
 		}
 
-		res = forwardProblem.getResults();
+		res = forward.forwardProblem.getResults();
 
 		logger.info(
 				"IFDS problem with {} forward and {} backward edges solved, "
 						+ "processing {} results...",
-				forwardSolver.propagationCount, backSolver == null ? 0
-						: backSolver.propagationCount,
+				forward.forwardSolver.propagationCount,
+				forward.backSolver == null ? 0
+						: forward.backSolver.propagationCount,
 				res == null ? 0 : res.size());
 
 		// Force a cleanup. Everything we need is reachable through the
 		// results set, the other abstractions can be killed now.
-		forwardSolver.cleanup();
-		if (backSolver != null) {
-			backSolver.cleanup();
-			backSolver = null;
-			backProblem = null;
-		}
-		forwardSolver = null;
-		forwardProblem = null;
+		forward.cleanup();
+		forward = null;
 		AccessPath.clearBaseRegister();
 		Runtime.getRuntime().gc();
 
+		PhaseProfiler.Phase pathPhase = profiler.start("taint-paths");
 		computeTaintPaths(res);
+		pathPhase.end();
 
 		if (results.getResults().isEmpty())
 			logger.warn("No results found.");
@@ -678,16 +790,257 @@ public class Infoflow extends AbstractInfoflow {
 	}
 
 	/**
-	 * Creates a new executor object for spawning worker threads
+	 * The problems and solvers of one forward taint analysis together with
+	 * the backward alias analysis it uses
+	 */
+	private static class SolverPhase {
+
+		CompletionSignallingExecutor executor;
+		InfoflowProblem forwardProblem;
+		InfoflowSolver forwardSolver;
+		BackwardsInfoflowProblem backProblem;
+		InfoflowSolver backSolver;
+		IAliasingStrategy aliasingStrategy;
+
+		void cleanup() {
+			if (forwardSolver == null)
+				return;
+			forwardSolver.cleanup();
+			if (backSolver != null)
+				backSolver.cleanup();
+			forwardSolver = null;
+			forwardProblem = null;
+			backSolver = null;
+			backProblem = null;
+		}
+
+	}
+
+	/**
+	 * Creates the problems and solvers for one forward taint analysis. All
+	 * solvers of the phase run on the given executor and are only wired to
+	 * each other, so different phases can be solved at the same time.
+	 * 
+	 * @param sourcesSinks
+	 *            The manager object for identifying sources and sinks
+	 * @param executor
+	 *            The executor on which the solvers shall run
+	 * @param identifyStaticFields
+	 *            True if this is the phase that looks for flows into static
+	 *            fields
+	 * @return The new phase
+	 */
+	private SolverPhase createSolverPhase(ISourceSinkManager sourcesSinks,
+			CompletionSignallingExecutor executor, boolean identifyStaticFields) {
+		SolverPhase phase = new SolverPhase();
+		phase.executor = executor;
+
+		switch (aliasingAlgorithm) {
+		case FlowSensitive:
+			phase.backProblem = new BackwardsInfoflowProblem(
+					new BackwardsInfoflowCFG(iCfg), sourcesSinks);
+			// need to set this before creating the zero abstraction
+			phase.backProblem.setFlowSensitiveAliasing(flowSensitiveAliasing);
+
+			phase.backSolver = new InfoflowSolver(phase.backProblem, executor);
+			phase.backSolver.setJumpPredecessors(!computeResultPaths);
+			// backSolver.setEnableMergePointChecking(true);
+
+			phase.aliasingStrategy = new FlowSensitiveAliasStrategy(iCfg,
+					phase.backSolver);
+			break;
+		case PtsBased:
+			phase.aliasingStrategy = new PtsBasedAliasStrategy(iCfg);
+			break;
+		default:
+			throw new RuntimeException("Unsupported aliasing algorithm");
+		}
+
+		InfoflowProblem forwardProblem = new InfoflowProblem(iCfg,
+				sourcesSinks, phase.aliasingStrategy);
+		phase.forwardProblem = forwardProblem;
+
+		// need to set this before creating the zero abstraction
+		forwardProblem.setFlowSensitiveAliasing(flowSensitiveAliasing);
+		if (phase.backProblem != null)
+			forwardProblem.setZeroValue(phase.backProblem.createZeroValue());
+
+		// Set the options
+		phase.forwardSolver = new InfoflowSolver(forwardProblem, executor);
+		phase.aliasingStrategy.setForwardSolver(phase.forwardSolver);
+		phase.forwardSolver.setJumpPredecessors(!computeResultPaths);
+		// forwardSolver.setEnableMergePointChecking(true);
+
+		forwardProblem.setInspectSources(inspectSources);
+		forwardProblem.setInspectSinks(inspectSinks);
+		forwardProblem.setEnableImplicitFlows(enableImplicitFlows);
+		forwardProblem.setEnableStaticFieldTracking(enableStaticFields);
+		forwardProblem.setEnableExceptionTracking(enableExceptions);
+		for (TaintPropagationHandler tp : taintPropagationHandlers)
+			forwardProblem.addTaintPropagationHandler(tp);
+		forwardProblem.setTaintWrapper(taintWrapper);
+		forwardProblem.setStopAfterFirstFlow(stopAfterFirstFlow);
+		forwardProblem
+				.setIgnoreFlowsInSystemPackages(ignoreFlowsInSystemPackages);
+		if (identifyStaticFields)
+			forwardProblem.setIdentifyStaticFields(true);
+
+		if (phase.backProblem != null) {
+			BackwardsInfoflowProblem backProblem = phase.backProblem;
+			backProblem.setForwardSolver(phase.forwardSolver);
+			backProblem.setTaintWrapper(taintWrapper);
+			backProblem.setEnableStaticFieldTracking(enableStaticFields);
+			backProblem.setEnableExceptionTracking(enableExceptions);
+			for (TaintPropagationHandler tp : taintPropagationHandlers)
+				backProblem.addTaintPropagationHandler(tp);
+			backProblem.setActivationUnitsToCallSites(forwardProblem);
+			backProblem
+					.setIgnoreFlowsInSystemPackages(ignoreFlowsInSystemPackages);
+			backProblem.setInspectSources(inspectSources);
+			backProblem.setInspectSinks(inspectSinks);
+		}
+		return phase;
+	}
+
+	/**
+	 * Runs the forward solver of the given phase and waits until all of its
+	 * tasks are done
 	 * 
-	 * @param numThreads
-	 *            The number of threads to use
-	 * @return The generated executor
+	 * @param phase
+	 *            The phase to solve
+	 * @param name
+	 *            The name under which the phase is profiled
 	 */
-	private CountingThreadPoolExecutor createExecutor(int numThreads) {
-		return new CountingThreadPoolExecutor(maxThreadNum == -1 ? numThreads
-				: Math.min(maxThreadNum, numThreads), Integer.MAX_VALUE, 30,
-				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+	private void solveForward(SolverPhase phase, String name) {
+		PhaseProfiler.Phase forwardPhase = profiler.start(name);
+		try {
+			solve(phase);
+		} finally {
+			forwardPhase.end();
+		}
+	}
+
+	/**
+	 * Runs the forward solver of the given phase without profiling it
+	 * 
+	 * @param phase
+	 *            The phase to solve
+	 */
+	private void solve(SolverPhase phase) {
+		phase.forwardSolver.solve();
+
+		// Heros may return before the last executor tasks are actually done,
+		// so we wait for them before moving on.
+		awaitExecutor(phase.executor);
+	}
+
+	/**
+	 * Solves the regular forward phase speculatively while the static-field
+	 * phase is still running. The forward problem sees the sink points of the
+	 * static phase as they are found, but it may already have passed a
+	 * statement before that statement became an extra sink point. If the
+	 * static phase found anything, the speculative results are therefore
+	 * discarded and the forward phase is solved again with the complete set
+	 * of extra sink points. This is no pipeline: in that case, the forward
+	 * phase costs twice as much as when it is run after the static phase. It
+	 * only saves time if the static phase finds nothing.
+	 * 
+	 * Both phases share the worker threads of the scheduler, so their CPU time
+	 * and allocations cannot be told apart. They are profiled as a single
+	 * phase, the second forward run as a phase of its own.
+	 * 
+	 * @param sourcesSinks
+	 *            The manager object for identifying sources and sinks
+	 * @param scheduler
+	 *            The scheduler on which the phases run
+	 * @param forward
+	 *            The regular forward phase
+	 * @param staticForward
+	 *            The static-field phase
+	 * @return The forward phase whose results are complete
+	 */
+	private SolverPhase solveSpeculatively(ISourceSinkManager sourcesSinks,
+			SolverScheduler scheduler, SolverPhase forward,
+			final SolverPhase staticForward) {
+		final Set<AbstractionAtSink> extraSinks = staticForward.forwardProblem
+				.getResults();
+		forward.forwardProblem.setExtraSinkPoints(extraSinks);
+
+		PhaseProfiler.Phase overlapPhase = profiler
+				.start("static-forward+forward");
+		try {
+			Future<Void> staticResult = scheduler
+					.submitBlocking(new Callable<Void>() {
+
+						@Override
+						public Void call() {
+							solve(staticForward);
+							staticForward.cleanup();
+							return null;
+						}
+
+					});
+			solve(forward);
+			staticResult.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(
+					"Interrupted while waiting for the static phase", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Static phase failed", e.getCause());
+		} finally {
+			overlapPhase.end();
+		}
+
+		if (extraSinks.isEmpty())
+			return forward;
+
+		logger.info("Static phase found {} sink points, discarding the "
+				+ "speculative forward results and solving the forward phase "
+				+ "again", extraSinks.size());
+		SolverPhase rerun = createSolverPhase(sourcesSinks,
+				scheduler.newPhase("forward-rerun"), false);
+		for (Unit u : forward.forwardProblem.getInitialSeeds().keySet())
+			rerun.forwardProblem.addInitialSeeds(u,
+					Collections.singleton(rerun.forwardProblem.zeroValue()));
+		forward.cleanup();
+		AccessPath.clearBaseRegister();
+
+		rerun.forwardProblem.setExtraSinkPoints(extraSinks);
+		solveForward(rerun, "forward-rerun");
+		return rerun;
+	}
+
+	/**
+	 * Gets the number of worker threads for the solvers. This is the number of
+	 * processors available to this process, capped by the maximum thread
+	 * number.
+	 * 
+	 * @return The number of worker threads for the solvers
+	 */
+	private int getThreadNum() {
+		int numThreads = SolverScheduler.availableProcessors();
+		return maxThreadNum == -1 ? numThreads : Math.min(maxThreadNum,
+				numThreads);
+	}
+
+	/**
+	 * Waits until the given executor has finished all of its tasks. The wait
+	 * ends as soon as the last task is done, but never takes longer than
+	 * {@link #EXECUTOR_TIMEOUT_SECONDS}.
+	 * 
+	 * @param executor
+	 *            The executor to wait for
+	 */
+	private void awaitExecutor(CompletionSignallingExecutor executor) {
+		try {
+			executor.awaitQuiescence(EXECUTOR_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			logger.error("Could not wait for executor termination", e);
+			Thread.currentThread().interrupt();
+		} catch (TimeoutException e) {
+			logger.error("Executor did not terminate gracefully", e);
+		}
 	}
 
 	/**
@@ -707,8 +1060,8 @@ public class Infoflow extends AbstractInfoflow {
 		builder.shutdown();
 	}
 
-	private Collection<SootMethod> getMethodsForSeeds(IInfoflowCFG icfg) {
-		List<SootMethod> seeds = new LinkedList<SootMethod>();
+	private List<SootMethod> getMethodsForSeeds(IInfoflowCFG icfg) {
+		List<SootMethod> seeds = new ArrayList<SootMethod>();
 		// If we have a callgraph, we retrieve the reachable methods. Otherwise,
 		// we have no choice but take all application methods as an
 		// approximation
@@ -723,124 +1076,271 @@ public class Infoflow extends AbstractInfoflow {
 				seeds.add(iter.next().method());
 		} else {
 			long beforeSeedMethods = System.nanoTime();
-			Set<SootMethod> doneSet = new HashSet<SootMethod>();
-			for (SootMethod sm : Scene.v().getEntryPoints())
-				getMethodsForSeedsIncremental(sm, doneSet, seeds, icfg);
+			getMethodsForSeedsIncremental(seeds, icfg);
 			logger.info("Collecting seed methods took {} seconds",
 					(System.nanoTime() - beforeSeedMethods) / 1E9);
 		}
 		return seeds;
 	}
 
-	private void getMethodsForSeedsIncremental(SootMethod sm,
-			Set<SootMethod> doneSet, List<SootMethod> seeds, IInfoflowCFG icfg) {
+	/**
+	 * Collects the application methods reachable from the entry points on the
+	 * ICFG. The traversal proceeds in breadth-first frontiers, so deep call
+	 * chains do not grow the stack. If enabled, the callees of the methods in
+	 * a frontier are looked up in parallel. The visited methods are tracked
+	 * by their Soot numbers. The methods are returned in the order in which
+	 * they were first reached, which does not depend on the number of
+	 * threads.
+	 * 
+	 * @param seeds
+	 *            The list to which to add the reachable methods
+	 * @param icfg
+	 *            The ICFG on which to look up the callees
+	 */
+	private void getMethodsForSeedsIncremental(List<SootMethod> seeds,
+			final IInfoflowCFG icfg) {
 		assert Scene.v().hasFastHierarchy();
+		BitSet visited = new BitSet();
+		List<SootMethod> frontier = new ArrayList<SootMethod>();
+		for (SootMethod sm : Scene.v().getEntryPoints())
+			visitSeedMethod(sm, visited, frontier);
+
+		SolverScheduler scheduler = parallelSeedCollection ? new SolverScheduler(
+				getThreadNum()) : null;
+		try {
+			while (!frontier.isEmpty()) {
+				seeds.addAll(frontier);
+				List<SootMethod> next = new ArrayList<SootMethod>();
+				for (List<SootMethod> callees : getCalleesOf(frontier, icfg,
+						scheduler))
+					for (SootMethod callee : callees)
+						visitSeedMethod(callee, visited, next);
+				frontier = next;
+			}
+		} finally {
+			if (scheduler != null)
+				scheduler.shutdown();
+		}
+	}
+
+	private static void visitSeedMethod(SootMethod sm, BitSet visited,
+			List<SootMethod> frontier) {
 		if (!sm.isConcrete() || !sm.getDeclaringClass().isApplicationClass()
-				|| !doneSet.add(sm))
+				|| visited.get(sm.getNumber()))
 			return;
-		seeds.add(sm);
+		visited.set(sm.getNumber());
+		frontier.add(sm);
+	}
+
+	/**
+	 * Gets the callees of all calls in the given methods
+	 * 
+	 * @param methods
+	 *            The methods whose callees to look up
+	 * @param icfg
+	 *            The ICFG on which to look up the callees
+	 * @param scheduler
+	 *            The scheduler on which to look up the callees, or null to
+	 *            look them up on the current thread
+	 * @return The callees, one list per method in the order of the methods
+	 */
+	private List<List<SootMethod>> getCalleesOf(
+			final List<SootMethod> methods, final IInfoflowCFG icfg,
+			SolverScheduler scheduler) {
+		@SuppressWarnings("unchecked")
+		final List<SootMethod>[] callees = new List[methods.size()];
+
+		int numChunks = scheduler == null ? 1 : Math.min(methods.size(),
+				scheduler.getParallelism() * SCAN_CHUNKS_PER_THREAD);
+		if (numChunks <= 1) {
+			for (int i = 0; i < callees.length; i++)
+				callees[i] = getCalleesOf(methods.get(i), icfg);
+			return Arrays.asList(callees);
+		}
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numChunks);
+		for (int c = 0; c < numChunks; c++) {
+			final int from = (int) ((long) c * callees.length / numChunks);
+			final int to = (int) ((long) (c + 1) * callees.length / numChunks);
+			tasks.add(new Callable<Void>() {
+
+				@Override
+				public Void call() {
+					for (int i = from; i < to; i++)
+						callees[i] = getCalleesOf(methods.get(i), icfg);
+					return null;
+				}
+
+			});
+		}
+		try {
+			for (Future<Void> f : scheduler.invokeAll(tasks))
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(
+					"Interrupted while collecting seed methods", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Could not collect seed methods",
+					e.getCause());
+		}
+		return Arrays.asList(callees);
+	}
+
+	private static List<SootMethod> getCalleesOf(SootMethod sm,
+			IInfoflowCFG icfg) {
+		List<SootMethod> callees = new ArrayList<SootMethod>();
 		for (Unit u : sm.retrieveActiveBody().getUnits()) {
 			Stmt stmt = (Stmt) u;
 			if (stmt.containsInvokeExpr())
-				for (SootMethod callee : icfg.getCalleesOfCallAt(stmt))
-					getMethodsForSeedsIncremental(callee, doneSet, seeds, icfg);
+				callees.addAll(icfg.getCalleesOfCallAt(stmt));
 		}
+		return callees;
+	}
+
+	/**
+	 * The seeds and the number of sinks found in a single method
+	 */
+	private static class MethodSeeds {
+
+		final List<Unit> seeds = new ArrayList<Unit>();
+		final List<Unit> staticSeeds = new ArrayList<Unit>();
+		int sinkCount = 0;
+
+	}
+
+	/**
+	 * Scans the given methods for sources and sinks. If the parallel scan is
+	 * enabled, the methods are split into chunks that are scanned on the
+	 * worker threads of the scheduler. The results are returned in the order
+	 * of the methods, so the seeds are registered in the same order as in a
+	 * sequential scan.
+	 * 
+	 * @param sourcesSinks
+	 *            The SourceSinkManager to be used for identifying sources and
+	 *            sinks. It must be safe to query from multiple threads if the
+	 *            parallel scan is enabled.
+	 * @param methods
+	 *            The methods to scan
+	 * @param scheduler
+	 *            The scheduler on which to run the scan
+	 * @return The seeds and sink counts, one entry per method
+	 */
+	private List<MethodSeeds> scanMethodsForSourcesSinks(
+			final ISourceSinkManager sourcesSinks,
+			Collection<SootMethod> methods, SolverScheduler scheduler) {
+		final List<SootMethod> methodList = new ArrayList<SootMethod>(methods);
+		final MethodSeeds[] seeds = new MethodSeeds[methodList.size()];
+
+		int numChunks = Math.min(methodList.size(),
+				scheduler.getParallelism() * SCAN_CHUNKS_PER_THREAD);
+		if (!parallelSourceSinkScan || scheduler.getParallelism() <= 1
+				|| numChunks <= 1) {
+			for (int i = 0; i < seeds.length; i++)
+				seeds[i] = scanMethodForSourcesSinks(sourcesSinks,
+						methodList.get(i));
+			return Arrays.asList(seeds);
+		}
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numChunks);
+		for (int c = 0; c < numChunks; c++) {
+			final int from = (int) ((long) c * seeds.length / numChunks);
+			final int to = (int) ((long) (c + 1) * seeds.length / numChunks);
+			tasks.add(new Callable<Void>() {
+
+				@Override
+				public Void call() {
+					for (int i = from; i < to; i++)
+						seeds[i] = scanMethodForSourcesSinks(sourcesSinks,
+								methodList.get(i));
+					return null;
+				}
+
+			});
+		}
+		try {
+			for (Future<Void> f : scheduler.invokeAll(tasks))
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(
+					"Interrupted while scanning for sources and sinks", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Could not scan for sources and sinks",
+					e.getCause());
+		}
+		return Arrays.asList(seeds);
 	}
 
 	/**
 	 * Scans the given method for sources and sinks contained in it. Sinks are
-	 * just counted, sources are added to the InfoflowProblem as seeds.
+	 * just counted, sources are collected as seeds.
 	 * 
 	 * @param sourcesSinks
 	 *            The SourceSinkManager to be used for identifying sources and
 	 *            sinks
-	 * @param forwardProblem
-	 *            The InfoflowProblem in which to register the sources as seeds
 	 * @param m
 	 *            The method to scan for sources and sinks
-	 * @return The number of sinks found in this method
+	 * @return The seeds and the number of sinks found in this method
 	 */
-	private int scanMethodForSourcesSinks(
-			final ISourceSinkManager sourcesSinks,
-			InfoflowProblem forwardProblem,
-			InfoflowProblem staticForwardProblem, SootMethod m) {
-		int sinkCount = 0;
+	private MethodSeeds scanMethodForSourcesSinks(
+			final ISourceSinkManager sourcesSinks, SootMethod m) {
+		MethodSeeds seeds = new MethodSeeds();
 		if (m.hasActiveBody()) {
 			// Check whether this is a system class we need to ignore
 			final String className = m.getDeclaringClass().getName();
 			if (ignoreFlowsInSystemPackages
 					&& SystemClassHandler.isClassInSystemPackage(className))
-				return sinkCount;
+				return seeds;
 
 			// Look for a source in the method. Also look for sinks. If we
 			// have no sink in the program, we don't need to perform any
 			// analysis
-			PatchingChain<Unit> units = m.getActiveBody().getUnits();
-			Stmt old_s = null; // DIDFAIL
+			final StatementClassifier classifier = StatementClassifier.v();
+			final boolean isOnCreate = m.getSubSignature().equals(
+					"void onCreate(android.os.Bundle)");
+			Map<Unit, String> intentIDs = null; // DIDFAIL
 
-			for (Unit u : units) {
+			for (Unit u : m.getActiveBody().getUnits()) {
 				Stmt s = (Stmt) u;
-
-				// We were using the piece of code below to identify the all
-				// instances of getIntent() being called inside onCreate()
-				// But we aren't using it anymore, since we realized that we can
-				// mark the Unit returned by getIntent() as Source just by
-				// adding
-				// the method as a Source inside the SourcesAndSinks.txt file
-				if (m.getSubSignature().equals(
-						"void onCreate(android.os.Bundle)")) {
-					try {
-						AbstractInvokeExpr ie = (AbstractInvokeExpr) s
-								.getInvokeExpr();
-						String subSig = ie.getMethod().getSubSignature();
-						if (subSig
-								.contains("android.content.Intent getIntent()")) {
-							logger.info("getIntent() called inside onCreate() in class: "
-									+ m.getDeclaringClass().getName());
-						}
-					} catch (Exception e) {
-					}
-				}
-				// *******
-
-				if (sourcesSinks.getSourceInfo(s, iCfg) != null) {
-					if (s.hasTag("StaticSourceTag")) {
-						staticForwardProblem.addInitialSeeds(u, Collections
-								.singleton(staticForwardProblem.zeroValue()));
-						forwardProblem.addInitialSeeds(u, Collections
-								.singleton(forwardProblem.zeroValue()));
-					} else {
-						forwardProblem.addInitialSeeds(u, Collections
-								.singleton(forwardProblem.zeroValue()));
-					}
+				int roles = classifier.classify(s, sourcesSinks, iCfg);
+
+				// We were using this to identify all instances of getIntent()
+				// being called inside onCreate(). We aren't relying on it
+				// anymore, since the Unit returned by getIntent() can be marked
+				// as a Source in the SourcesAndSinks.txt file
+				if (isOnCreate && (roles & StatementClassifier.GET_INTENT) != 0)
+					logger.info("getIntent() called inside onCreate() in class: "
+							+ className);
+
+				if ((roles & StatementClassifier.SOURCE) != 0) {
+					if (s.hasTag("StaticSourceTag"))
+						seeds.staticSeeds.add(u);
+					seeds.seeds.add(u);
 					logger.debug("Source found: {}", u);
 				}
-				if (sourcesSinks.isSink(s, iCfg)) {
+				if ((roles & StatementClassifier.SINK) != 0) {
 					logger.debug("Sink found: {}", u);
-					if (isIntentSink(s)) {
+					if ((roles & StatementClassifier.INTENT_SINK) != 0) {
 						String emph = "\u001B[31m";
 						String ansi_reset = "\u001B[0m";
 						logger.info(emph + "INTENT SINK: " + ansi_reset
 								+ s.toString());
-						logger.info(emph + "PREV: " + ansi_reset
-								+ old_s.toString());
-						String intentID = extractIntentID(old_s);
+						// The IDs of all intent sinks in the method are
+						// resolved together
+						if (intentIDs == null)
+							intentIDs = new IntentIDResolver(classifier)
+									.resolve(m.getActiveBody());
+						String intentID = intentIDs.get(s);
 						logger.info(emph + "IntentID: " + ansi_reset + intentID);
-						s.addTag(new IntentTag("IntentID", intentID));
-						logger.info(emph
-								+ "IntentID: "
-								+ ansi_reset
-								+ ((IntentTag) s.getTag("IntentID"))
-										.getIntentID());
+						AktAnnotations.v().putIntentID(s, intentID);
 					}
-					sinkCount++;
+					seeds.sinkCount++;
 				}
-
-				old_s = s;
 			}
 
 		}
-		return sinkCount;
+		return seeds;
 	}
 
 	@Override
@@ -961,52 +1461,13 @@ public class Infoflow extends AbstractInfoflow {
 	// BEGIN DIDFAIL ADDITIONS
 
 	public static boolean isIntentSink(Stmt stmt) {
-		if (!stmt.containsInvokeExpr()) {
-			return false;
-		}
-		AbstractInvokeExpr ie = (AbstractInvokeExpr) stmt.getInvokeExpr();
-		SootMethod meth = ie.getMethod();
-		SootClass android_content_Context = Scene.v().getSootClass(
-				"android.content.Context");
-		// FIXME: Check the method name better!
-		if (meth.toString().indexOf("startActivity") == -1) {
-			return false;
-		}
-		return ((new Hierarchy()).isClassSuperclassOfIncluding(
-				android_content_Context, meth.getDeclaringClass()));
+		return StatementClassifier.v().hasRole(stmt,
+				StatementClassifier.INTENT_SINK);
 	}
 
 	public static boolean isIntentResultSink(Stmt stmt) {
-		if (!stmt.containsInvokeExpr()) {
-			return false;
-		}
-		AbstractInvokeExpr ie = (AbstractInvokeExpr) stmt.getInvokeExpr();
-		SootMethod meth = ie.getMethod();
-		SootClass android_content_Context = Scene.v().getSootClass(
-				"android.app.Activity");
-		if (meth.toString().indexOf("setResult") == -1) {
-			return false;
-		}
-		return ((new Hierarchy()).isClassSuperclassOfIncluding(
-				android_content_Context, meth.getDeclaringClass()));
-	}
-
-	public static String extractIntentID(Stmt prevStmt) {
-		try {
-			if (!prevStmt.containsInvokeExpr()) {
-				return "";
-			}
-			AbstractInvokeExpr ie = (AbstractInvokeExpr) prevStmt
-					.getInvokeExpr();
-			String sig = ie.getMethod().getSignature();
-			if (!sig.equals("<android.content.Intent: android.content.Intent putExtra(java.lang.String,java.lang.String)>")) {
-				return "";
-			}
-			StringConstant ret = (StringConstant) ie.getArg(0);
-			return ret.value;
-		} catch (Exception e) {
-			return "";
-		}
+		return StatementClassifier.v().hasRole(stmt,
+				StatementClassifier.INTENT_RESULT_SINK);
 	}
 
 	// END DIDFAIL ADDITIONS
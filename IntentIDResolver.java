@@ -0,0 +1,251 @@
+package soot.jimple.infoflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import soot.Body;
+import soot.Local;
+import soot.RefType;
+import soot.Unit;
+import soot.Value;
+import soot.jimple.AssignStmt;
+import soot.jimple.CastExpr;
+import soot.jimple.ClassConstant;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.InvokeExpr;
+import soot.jimple.Stmt;
+import soot.jimple.StringConstant;
+import soot.toolkits.graph.ExceptionalUnitGraph;
+import soot.toolkits.graph.UnitGraph;
+import soot.toolkits.scalar.SimpleLiveLocals;
+import soot.toolkits.scalar.SmartLocalDefs;
+
+/**
+ * Computes the IDs of the intents sent by the intent sinks of a method. The
+ * ID of an intent consists of the keys of all putExtra calls, the actions of
+ * all setAction calls and the target classes of all setClass calls that are
+ * made on the intent before it is sent, including the arguments of its
+ * constructor. The parts are sorted and separated by commas, e.g.
+ *
+ * <pre>
+ * action:android.intent.action.VIEW,class:com.example.Target,secret
+ * </pre>
+ *
+ * Calls are attributed to an intent via the local definitions: a call
+ * belongs to an intent sink if the receiver of the call and the intent passed
+ * to the sink are defined by the same allocation, and the call can reach the
+ * sink. Copies, casts and the intent returned by the builder methods are
+ * followed.
+ */
+public class IntentIDResolver {
+
+	private final StatementClassifier classifier;
+
+	public IntentIDResolver(StatementClassifier classifier) {
+		this.classifier = classifier;
+	}
+
+	/**
+	 * Resolves the IDs of all intent sinks in the given body in one pass
+	 *
+	 * @param body
+	 *            The body to analyze
+	 * @return The intent ID of every intent sink in the body
+	 */
+	public Map<Unit, String> resolve(Body body) {
+		if (!hasIntentSink(body))
+			return Collections.emptyMap();
+		return resolve(new ExceptionalUnitGraph(body));
+	}
+
+	/**
+	 * Resolves the IDs of all intent sinks in the body of the given graph in
+	 * one pass
+	 *
+	 * @param graph
+	 *            The control flow graph of the body to analyze
+	 * @return The intent ID of every intent sink in the body
+	 */
+	public Map<Unit, String> resolve(UnitGraph graph) {
+		List<Stmt> sinks = new ArrayList<Stmt>();
+		List<Stmt> builders = new ArrayList<Stmt>();
+		for (Unit u : graph.getBody().getUnits()) {
+			Stmt s = (Stmt) u;
+			int roles = classifier.getRoles(s);
+			if ((roles & StatementClassifier.INTENT_SINK) != 0)
+				sinks.add(s);
+			if ((roles & StatementClassifier.INTENT_BUILDER) != 0
+					&& s.getInvokeExpr() instanceof InstanceInvokeExpr)
+				builders.add(s);
+		}
+		if (sinks.isEmpty())
+			return Collections.emptyMap();
+
+		SmartLocalDefs defs = new SmartLocalDefs(graph, new SimpleLiveLocals(
+				graph));
+
+		// The allocations each builder call operates on
+		List<Set<Unit>> builderRoots = new ArrayList<Set<Unit>>(
+				builders.size());
+		List<Set<Unit>> builderReach = new ArrayList<Set<Unit>>(
+				builders.size());
+		for (Stmt b : builders) {
+			Value base = ((InstanceInvokeExpr) b.getInvokeExpr()).getBase();
+			builderRoots.add(getRoots(defs, (Local) base, b));
+			builderReach.add(null);
+		}
+
+		Map<Unit, String> ids = new HashMap<Unit, String>();
+		for (Stmt sink : sinks) {
+			Local intent = getIntentArg(sink.getInvokeExpr());
+			if (intent == null) {
+				ids.put(sink, "");
+				continue;
+			}
+			Set<Unit> sinkRoots = getRoots(defs, intent, sink);
+
+			Set<String> parts = new TreeSet<String>();
+			for (int i = 0; i < builders.size(); i++) {
+				if (Collections.disjoint(sinkRoots, builderRoots.get(i)))
+					continue;
+				if (builderReach.get(i) == null)
+					builderReach.set(i, getReachable(graph, builders.get(i)));
+				if (!builderReach.get(i).contains(sink))
+					continue;
+				addParts(builders.get(i), parts);
+			}
+
+			StringBuilder sb = new StringBuilder();
+			for (String part : parts) {
+				if (sb.length() > 0)
+					sb.append(",");
+				sb.append(part);
+			}
+			ids.put(sink, sb.toString());
+		}
+		return ids;
+	}
+
+	/**
+	 * Checks whether the given body contains an intent sink, so that no
+	 * graph has to be built for all other bodies
+	 */
+	private boolean hasIntentSink(Body body) {
+		for (Unit u : body.getUnits())
+			if (classifier.hasRole((Stmt) u, StatementClassifier.INTENT_SINK))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Gets the intent passed to the given sink invocation
+	 */
+	private Local getIntentArg(InvokeExpr ie) {
+		for (Value arg : ie.getArgs())
+			if (arg instanceof Local
+					&& arg.getType() instanceof RefType
+					&& ((RefType) arg.getType()).getClassName().equals(
+							"android.content.Intent"))
+				return (Local) arg;
+		if (ie.getArgCount() > 0 && ie.getArg(0) instanceof Local)
+			return (Local) ie.getArg(0);
+		return null;
+	}
+
+	/**
+	 * Gets the statements at which the objects the given local may point to
+	 * at the given unit are created. Definitions we cannot see through, such
+	 * as parameters or call results, count as allocations themselves.
+	 */
+	private Set<Unit> getRoots(SmartLocalDefs defs, Local local, Unit at) {
+		Set<Unit> roots = new HashSet<Unit>();
+		Set<Unit> done = new HashSet<Unit>();
+		List<Unit> workList = new LinkedList<Unit>(defs.getDefsOfAt(local, at));
+		while (!workList.isEmpty()) {
+			Unit def = workList.remove(0);
+			if (!done.add(def))
+				continue;
+
+			Value next = null;
+			if (def instanceof AssignStmt) {
+				Value rop = ((AssignStmt) def).getRightOp();
+				if (rop instanceof Local)
+					next = rop;
+				else if (rop instanceof CastExpr)
+					next = ((CastExpr) rop).getOp();
+				else if (rop instanceof InstanceInvokeExpr
+						&& classifier.hasRole((Stmt) def,
+								StatementClassifier.INTENT_BUILDER))
+					// The builder methods return the intent itself
+					next = ((InstanceInvokeExpr) rop).getBase();
+			}
+			if (next instanceof Local)
+				workList.addAll(defs.getDefsOfAt((Local) next, def));
+			else
+				roots.add(def);
+		}
+		return roots;
+	}
+
+	/**
+	 * Gets all units that can be reached from the given unit
+	 */
+	private Set<Unit> getReachable(UnitGraph graph, Unit from) {
+		Set<Unit> reachable = new HashSet<Unit>();
+		List<Unit> workList = new LinkedList<Unit>(graph.getSuccsOf(from));
+		while (!workList.isEmpty()) {
+			Unit u = workList.remove(0);
+			if (reachable.add(u))
+				workList.addAll(graph.getSuccsOf(u));
+		}
+		return reachable;
+	}
+
+	/**
+	 * Adds the parts of the intent ID that the given builder call defines
+	 */
+	private void addParts(Stmt builder, Set<String> parts) {
+		InvokeExpr ie = builder.getInvokeExpr();
+		int roles = classifier.getRoles(builder);
+		if ((roles & StatementClassifier.PUT_EXTRA) != 0) {
+			if (ie.getArgCount() > 0 && ie.getArg(0) instanceof StringConstant)
+				parts.add(((StringConstant) ie.getArg(0)).value);
+		} else if ((roles & StatementClassifier.SET_ACTION) != 0) {
+			if (ie.getArgCount() > 0 && ie.getArg(0) instanceof StringConstant)
+				parts.add("action:" + ((StringConstant) ie.getArg(0)).value);
+		} else if ((roles & StatementClassifier.SET_CLASS) != 0) {
+			if (ie.getArgCount() > 1)
+				addClassPart(ie.getArg(1), parts);
+		} else if ((roles & StatementClassifier.INTENT_INIT) != 0) {
+			// Intent(String action), Intent(Context, Class) and
+			// Intent(String action, Uri, Context, Class)
+			boolean first = true;
+			for (Value arg : ie.getArgs()) {
+				if (arg instanceof StringConstant && first)
+					parts.add("action:" + ((StringConstant) arg).value);
+				else if (arg instanceof ClassConstant)
+					addClassPart(arg, parts);
+				first = false;
+			}
+		}
+	}
+
+	private void addClassPart(Value arg, Set<String> parts) {
+		if (arg instanceof ClassConstant) {
+			// Depending on the Soot version, the name may be a descriptor
+			String name = ((ClassConstant) arg).value;
+			if (name.startsWith("L") && name.endsWith(";"))
+				name = name.substring(1, name.length() - 1);
+			parts.add("class:" + name.replace('/', '.'));
+		} else if (arg instanceof StringConstant)
+			parts.add("class:" + ((StringConstant) arg).value);
+	}
+
+}
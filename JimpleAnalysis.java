@@ -1,8 +1,17 @@
 package soot.jimple.infoflow;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 import soot.Unit;
+import soot.UnitBox;
+import soot.jimple.AbstractStmtSwitch;
 import soot.jimple.AssignStmt;
 import soot.jimple.EnterMonitorStmt;
 import soot.jimple.ExitMonitorStmt;
@@ -17,151 +26,413 @@ import soot.jimple.ReturnStmt;
 import soot.jimple.ReturnVoidStmt;
 import soot.jimple.TableSwitchStmt;
 import soot.jimple.ThrowStmt;
-import soot.tagkit.AttributeValueException;
-import soot.tagkit.Tag;
 import soot.toolkits.graph.UnitGraph;
-import soot.toolkits.scalar.ForwardBranchedFlowAnalysis;
 
-public abstract class JimpleAnalysis extends
-		ForwardBranchedFlowAnalysis<AktSet> {
+/**
+ * Forward, branch-sensitive dataflow analysis over Jimple. Subclasses only
+ * override the transfer functions of the statements they care about.
+ *
+ * Units are processed in reverse postorder from a priority worklist, so every
+ * unit outside of loops is processed once all its predecessors are done. Loop
+ * heads are widened once they have been visited more than
+ * {@link #WIDENING_DELAY} times.
+ *
+ * @param <L>
+ *            The type of the flow sets
+ */
+public abstract class JimpleAnalysis<L extends JimpleLattice<L>> {
+
+	/**
+	 * Number of visits of a loop head after which its flow set is widened
+	 * instead of joined
+	 */
+	protected static final int WIDENING_DELAY = 3;
+
+	protected final UnitGraph graph;
+
+	// Units in reverse postorder and the position of each unit in it
+	private final List<Unit> order;
+	private final Map<Unit, Integer> orderIndex;
+	private final Set<Unit> loopHeads;
+
+	private final Map<Unit, L> unitToBeforeFlow;
+	private final Map<Unit, L> unitToFallFlow;
+	private final Map<Unit, List<L>> unitToBranchFlows;
+
+	private final FlowSwitch flowSwitch = new FlowSwitch();
 
 	public JimpleAnalysis(UnitGraph graph) {
-		super(graph);
+		this.graph = graph;
+		this.order = computeReversePostorder(graph);
+		this.orderIndex = new HashMap<Unit, Integer>(order.size() * 2);
+		for (int i = 0; i < order.size(); i++)
+			orderIndex.put(order.get(i), i);
+		this.loopHeads = computeLoopHeads();
+
+		int size = order.size() * 2 + 1;
+		this.unitToBeforeFlow = new HashMap<Unit, L>(size);
+		this.unitToFallFlow = new HashMap<Unit, L>(size);
+		this.unitToBranchFlows = new HashMap<Unit, List<L>>(size);
+	}
+
+	/**
+	 * Computes the reverse postorder of the units reachable from the heads of
+	 * the given graph. Unreachable units are appended at the end. The graph is
+	 * traversed iteratively, as method bodies can be long.
+	 */
+	private static List<Unit> computeReversePostorder(UnitGraph graph) {
+		List<Unit> postorder = new ArrayList<Unit>(graph.size());
+		Set<Unit> visited = new HashSet<Unit>(graph.size() * 2);
+		List<Unit> stack = new ArrayList<Unit>();
+		List<Integer> nextSucc = new ArrayList<Integer>();
+
+		for (Unit head : graph.getHeads()) {
+			if (!visited.add(head))
+				continue;
+			stack.add(head);
+			nextSucc.add(0);
+			while (!stack.isEmpty()) {
+				int top = stack.size() - 1;
+				Unit u = stack.get(top);
+				List<Unit> succs = graph.getSuccsOf(u);
+				int idx = nextSucc.get(top);
+				if (idx < succs.size()) {
+					nextSucc.set(top, idx + 1);
+					Unit succ = succs.get(idx);
+					if (visited.add(succ)) {
+						stack.add(succ);
+						nextSucc.add(0);
+					}
+					continue;
+				}
+				postorder.add(u);
+				stack.remove(top);
+				nextSucc.remove(top);
+			}
+		}
+		Collections.reverse(postorder);
+
+		for (Unit u : graph)
+			if (!visited.contains(u))
+				postorder.add(u);
+		return postorder;
+	}
+
+	/**
+	 * Computes the loop heads, i.e., the targets of edges that go backwards in
+	 * the reverse postorder
+	 */
+	private Set<Unit> computeLoopHeads() {
+		Set<Unit> heads = new HashSet<Unit>();
+		for (Unit u : order) {
+			int idx = orderIndex.get(u);
+			for (Unit succ : graph.getSuccsOf(u))
+				if (orderIndex.get(succ) <= idx)
+					heads.add(succ);
+		}
+		return heads;
+	}
+
+	/**
+	 * Creates the flow set of units that have not been reached yet
+	 */
+	protected abstract L newInitialFlow();
+
+	/**
+	 * Creates the flow set at the heads of the graph
+	 */
+	protected abstract L entryInitialFlow();
+
+	/**
+	 * Computes the fixpoint. Must be called by the constructor of the
+	 * subclass once it is fully initialized.
+	 */
+	protected void doAnalysis() {
+		for (Unit u : order) {
+			unitToBeforeFlow.put(u, newInitialFlow());
+			unitToFallFlow.put(u, newInitialFlow());
+			List<L> branchFlows = new ArrayList<L>(u.getUnitBoxes().size());
+			for (int i = 0; i < u.getUnitBoxes().size(); i++)
+				branchFlows.add(newInitialFlow());
+			unitToBranchFlows.put(u, branchFlows);
+		}
+
+		Set<Unit> heads = new HashSet<Unit>(graph.getHeads());
+		int[] visits = new int[order.size()];
+		boolean[] queued = new boolean[order.size()];
+		PriorityQueue<Integer> worklist = new PriorityQueue<Integer>(
+				order.size() + 1);
+		for (int i = 0; i < order.size(); i++) {
+			worklist.add(i);
+			queued[i] = true;
+		}
+
+		while (!worklist.isEmpty()) {
+			int idx = worklist.poll();
+			queued[idx] = false;
+			Unit u = order.get(idx);
+
+			// Join the flows on all incoming edges
+			L before = heads.contains(u) ? entryInitialFlow()
+					: newInitialFlow();
+			for (Unit pred : graph.getPredsOf(u))
+				before = join(before, getFlow(pred, u));
+
+			L oldBefore = unitToBeforeFlow.get(u);
+			if (loopHeads.contains(u) && ++visits[idx] > WIDENING_DELAY) {
+				L widened = newInitialFlow();
+				oldBefore.widen(before, widened);
+				before = widened;
+			}
+			unitToBeforeFlow.put(u, before);
+
+			// Compute the flows on all outgoing edges
+			L fallFlow = newInitialFlow();
+			List<L> branchFlows = new ArrayList<L>(u.getUnitBoxes().size());
+			for (int i = 0; i < u.getUnitBoxes().size(); i++)
+				branchFlows.add(newInitialFlow());
+			List<L> fallOut = u.fallsThrough() ? Collections
+					.singletonList(fallFlow) : Collections.<L> emptyList();
+			flowThrough(before, u, fallOut, branchFlows);
+
+			boolean changed = !fallFlow.equals(unitToFallFlow.get(u))
+					|| !branchFlows.equals(unitToBranchFlows.get(u))
+					|| !before.equals(oldBefore);
+			unitToFallFlow.put(u, fallFlow);
+			unitToBranchFlows.put(u, branchFlows);
+			if (!changed)
+				continue;
+
+			for (Unit succ : graph.getSuccsOf(u)) {
+				int succIdx = orderIndex.get(succ);
+				if (!queued[succIdx]) {
+					queued[succIdx] = true;
+					worklist.add(succIdx);
+				}
+			}
+		}
+	}
+
+	private L join(L a, L b) {
+		L out = newInitialFlow();
+		a.merge(b, out);
+		return out;
+	}
+
+	/**
+	 * Gets the flow along the edge between the given units. The fall-through
+	 * edge carries the fall flow, branch edges carry the flow of their target
+	 * box, and exceptional edges carry the flow before the throwing unit.
+	 */
+	private L getFlow(Unit from, Unit to) {
+		L flow = null;
+		if (from.fallsThrough()
+				&& graph.getBody().getUnits().getSuccOf(from) == to)
+			flow = unitToFallFlow.get(from);
+
+		List<UnitBox> boxes = from.getUnitBoxes();
+		List<L> branchFlows = unitToBranchFlows.get(from);
+		for (int i = 0; i < boxes.size(); i++)
+			if (boxes.get(i).getUnit() == to)
+				flow = flow == null ? branchFlows.get(i) : join(flow,
+						branchFlows.get(i));
+
+		return flow == null ? unitToBeforeFlow.get(from) : flow;
+	}
+
+	/**
+	 * Gets the flow set before the given unit
+	 *
+	 * @param u
+	 *            The unit for which to get the flow set
+	 * @return The flow set before the given unit
+	 */
+	public L getFlowBefore(Unit u) {
+		return unitToBeforeFlow.get(u);
 	}
 
-	protected void flowThroughNop(AktSet in, NopStmt stmt, List<AktSet> fallOut, List<AktSet> branchOuts) {
+	/**
+	 * Gets the flow set on the fall-through edge of the given unit
+	 *
+	 * @param u
+	 *            The unit for which to get the flow set
+	 * @return The flow set after the given unit if it falls through
+	 */
+	public L getFallFlowAfter(Unit u) {
+		return unitToFallFlow.get(u);
+	}
+
+	/**
+	 * Gets the flow sets on the branch edges of the given unit
+	 *
+	 * @param u
+	 *            The unit for which to get the flow sets
+	 * @return The flow sets after the given unit, one per target box
+	 */
+	public List<L> getBranchFlowAfter(Unit u) {
+		return unitToBranchFlows.get(u);
+	}
+
+	protected void flowThroughNop(L in, NopStmt stmt, List<L> fallOut, List<L> branchOuts) {
 		return;
 	}
 
-	protected void flowThroughIdentity(AktSet in, IdentityStmt stmt, List<AktSet> fallOut, List<AktSet> branchOuts) {
+	protected void flowThroughIdentity(L in, IdentityStmt stmt, List<L> fallOut, List<L> branchOuts) {
 		return;
 	}
 
-	protected void flowThroughAssign(AktSet in, AssignStmt stmt, List<AktSet> fallOut, List<AktSet> branchOuts) {
+	protected void flowThroughAssign(L in, AssignStmt stmt, List<L> fallOut, List<L> branchOuts) {
 		return;
 	}
 
-	protected void flowThroughIf(AktSet in, IfStmt stmt, List<AktSet> fallOut, List<AktSet> branchOuts) {
+	protected void flowThroughIf(L in, IfStmt stmt, List<L> fallOut, List<L> branchOuts) {
 		return;
 	}
 
-	protected void flowThroughGoto(AktSet in, GotoStmt stmt, List<AktSet> fallOut, List<AktSet> branchOuts) {
+	protected void flowThroughGoto(L in, GotoStmt stmt, List<L> fallOut, List<L> branchOuts) {
 		return;
 	}
 
-	protected void flowThroughTableSwitch(AktSet in, TableSwitchStmt stmt,
-			List<AktSet> fallOut, List<AktSet> branchOuts) {
+	protected void flowThroughTableSwitch(L in, TableSwitchStmt stmt,
+			List<L> fallOut, List<L> branchOuts) {
 		return;
 	}
 
-	protected void flowThroughLookupSwitch(AktSet in, LookupSwitchStmt stmt,
-			List<AktSet> fallOut, List<AktSet> branchOuts) {
+	protected void flowThroughLookupSwitch(L in, LookupSwitchStmt stmt,
+			List<L> fallOut, List<L> branchOuts) {
 		return;
 	}
 
-	protected void flowThroughInvoke(AktSet in, InvokeStmt stmt, List<AktSet> fallOut, List<AktSet> branchOuts) {
+	protected void flowThroughInvoke(L in, InvokeStmt stmt, List<L> fallOut, List<L> branchOuts) {
 		return;
 	}
 
-	protected void flowThroughReturn(AktSet in, ReturnStmt stmt, List<AktSet> fallOut, List<AktSet> branchOuts) {
+	protected void flowThroughReturn(L in, ReturnStmt stmt, List<L> fallOut, List<L> branchOuts) {
 		return;
 	}
 
-	protected void flowThroughReturnVoid(AktSet in, ReturnVoidStmt stmt,
-			List<AktSet> fallOut, List<AktSet> branchOuts) {
+	protected void flowThroughReturnVoid(L in, ReturnVoidStmt stmt,
+			List<L> fallOut, List<L> branchOuts) {
 		return;
 	}
 
-	protected void flowThroughEnterMonitor(AktSet in, EnterMonitorStmt stmt,
-			List<AktSet> fallOut, List<AktSet> branchOuts) {
+	protected void flowThroughEnterMonitor(L in, EnterMonitorStmt stmt,
+			List<L> fallOut, List<L> branchOuts) {
 		return;
 	}
 
-	protected void flowThroughExitMonitor(AktSet in, ExitMonitorStmt stmt,
-			List<AktSet> fallOut, List<AktSet> branchOuts) {
+	protected void flowThroughExitMonitor(L in, ExitMonitorStmt stmt,
+			List<L> fallOut, List<L> branchOuts) {
 		return;
 	}
 
-	protected void flowThroughThrow(AktSet in, ThrowStmt stmt, List<AktSet> fallOut, List<AktSet> branchOuts) {
+	protected void flowThroughThrow(L in, ThrowStmt stmt, List<L> fallOut, List<L> branchOuts) {
 		return;
 	}
 
-	protected void flowThroughRet(AktSet in, RetStmt stmt, List<AktSet> fallOut, List<AktSet> branchOuts) {
+	protected void flowThroughRet(L in, RetStmt stmt, List<L> fallOut, List<L> branchOuts) {
 		return;
 	}
 
-	@Override
-	protected void flowThrough(AktSet in, Unit stmt, List<AktSet> fallOut,
-			List<AktSet> branchOuts) {
-		for(AktSet s : fallOut) {
+	/**
+	 * Transfer function of the given unit. Copies the incoming flow to all
+	 * outgoing edges and dispatches to the statement-specific transfer
+	 * function, which then updates the outgoing flows in place.
+	 */
+	protected void flowThrough(L in, Unit stmt, List<L> fallOut,
+			List<L> branchOuts) {
+		for(L s : fallOut) {
 			in.copy(s);
 		}
-		for(AktSet s : branchOuts) {
+		for(L s : branchOuts) {
 			in.copy(s);
 		}
-		if(in.booleanExpression.length() > 0) {
-			System.out.println("ADDING TAG: " + stmt);
-			stmt.addTag(new Tag() {
-				@Override
-				public byte[] getValue() throws AttributeValueException {
-					return in.booleanExpression.getBytes();
-				}
-				@Override
-				public String getName() {
-					return "BooleanExpressionTag";
-				}
-			});
-			System.out.println(stmt.hasTag("BooleanExpressionTag"));
-		}
-		if (stmt instanceof NopStmt) {
-			flowThroughNop(in, (NopStmt) stmt, fallOut, branchOuts);
-		} else if (stmt instanceof IdentityStmt) {
-			flowThroughIdentity(in, (IdentityStmt) stmt, fallOut, branchOuts);
-		} else if (stmt instanceof AssignStmt) {
-			flowThroughAssign(in, (AssignStmt) stmt, fallOut, branchOuts);
-		} else if (stmt instanceof IfStmt) {
-			flowThroughIf(in, (IfStmt) stmt, fallOut, branchOuts);
-		} else if (stmt instanceof GotoStmt) {
-			flowThroughGoto(in, (GotoStmt) stmt, fallOut, branchOuts);
-		} else if (stmt instanceof TableSwitchStmt) {
-			flowThroughTableSwitch(in, (TableSwitchStmt) stmt, fallOut, branchOuts);
-		} else if (stmt instanceof LookupSwitchStmt) {
-			flowThroughLookupSwitch(in, (LookupSwitchStmt) stmt, fallOut, branchOuts);
-		} else if (stmt instanceof InvokeStmt) {
-			flowThroughInvoke(in, (InvokeStmt) stmt, fallOut, branchOuts);
-		} else if (stmt instanceof ReturnStmt) {
-			flowThroughReturn(in, (ReturnStmt) stmt, fallOut, branchOuts);
-		} else if (stmt instanceof ReturnVoidStmt) {
-			flowThroughReturnVoid(in, (ReturnVoidStmt) stmt, fallOut, branchOuts);
-		} else if (stmt instanceof EnterMonitorStmt) {
-			flowThroughEnterMonitor(in, (EnterMonitorStmt) stmt, fallOut, branchOuts);
-		} else if (stmt instanceof ExitMonitorStmt) {
-			flowThroughExitMonitor(in, (ExitMonitorStmt) stmt, fallOut, branchOuts);
-		} else if (stmt instanceof ThrowStmt) {
-			flowThroughThrow(in, (ThrowStmt) stmt, fallOut, branchOuts);
-		} else if (stmt instanceof RetStmt) {
-			flowThroughRet(in, (RetStmt) stmt, fallOut, branchOuts);
-		}
-	}
-
-	@Override
-	protected AktSet newInitialFlow() {
-		return new AktSet();
-	}
-
-	@Override
-	protected AktSet entryInitialFlow() {
-		return new AktSet();
-	}
-
-	@Override
-	protected void merge(AktSet in1, AktSet in2, AktSet out) {
-		in1.merge(in2, out);
-	}
-
-	@Override
-	protected void copy(AktSet source, AktSet dest) {
-		source.copy(dest);
+		flowSwitch.in = in;
+		flowSwitch.fallOut = fallOut;
+		flowSwitch.branchOuts = branchOuts;
+		stmt.apply(flowSwitch);
+	}
+
+	/**
+	 * Dispatches a statement to its transfer function. There is one switch per
+	 * analysis, the operands of the current statement are passed in its fields.
+	 */
+	private class FlowSwitch extends AbstractStmtSwitch {
+
+		private L in;
+		private List<L> fallOut;
+		private List<L> branchOuts;
+
+		@Override
+		public void caseNopStmt(NopStmt stmt) {
+			flowThroughNop(in, stmt, fallOut, branchOuts);
+		}
+
+		@Override
+		public void caseIdentityStmt(IdentityStmt stmt) {
+			flowThroughIdentity(in, stmt, fallOut, branchOuts);
+		}
+
+		@Override
+		public void caseAssignStmt(AssignStmt stmt) {
+			flowThroughAssign(in, stmt, fallOut, branchOuts);
+		}
+
+		@Override
+		public void caseIfStmt(IfStmt stmt) {
+			flowThroughIf(in, stmt, fallOut, branchOuts);
+		}
+
+		@Override
+		public void caseGotoStmt(GotoStmt stmt) {
+			flowThroughGoto(in, stmt, fallOut, branchOuts);
+		}
+
+		@Override
+		public void caseTableSwitchStmt(TableSwitchStmt stmt) {
+			flowThroughTableSwitch(in, stmt, fallOut, branchOuts);
+		}
+
+		@Override
+		public void caseLookupSwitchStmt(LookupSwitchStmt stmt) {
+			flowThroughLookupSwitch(in, stmt, fallOut, branchOuts);
+		}
+
+		@Override
+		public void caseInvokeStmt(InvokeStmt stmt) {
+			flowThroughInvoke(in, stmt, fallOut, branchOuts);
+		}
+
+		@Override
+		public void caseReturnStmt(ReturnStmt stmt) {
+			flowThroughReturn(in, stmt, fallOut, branchOuts);
+		}
+
+		@Override
+		public void caseReturnVoidStmt(ReturnVoidStmt stmt) {
+			flowThroughReturnVoid(in, stmt, fallOut, branchOuts);
+		}
+
+		@Override
+		public void caseEnterMonitorStmt(EnterMonitorStmt stmt) {
+			flowThroughEnterMonitor(in, stmt, fallOut, branchOuts);
+		}
+
+		@Override
+		public void caseExitMonitorStmt(ExitMonitorStmt stmt) {
+			flowThroughExitMonitor(in, stmt, fallOut, branchOuts);
+		}
+
+		@Override
+		public void caseThrowStmt(ThrowStmt stmt) {
+			flowThroughThrow(in, stmt, fallOut, branchOuts);
+		}
+
+		@Override
+		public void caseRetStmt(RetStmt stmt) {
+			flowThroughRet(in, stmt, fallOut, branchOuts);
+		}
+
 	}
 
 }
@@ -0,0 +1,45 @@
+package soot.jimple.infoflow;
+
+/**
+ * Flow set of a {@link JimpleAnalysis}. Implementations must provide a
+ * structural {@link Object#equals(Object)}, since the analysis uses it to
+ * detect the fixpoint.
+ *
+ * @param <L>
+ *            The type of the flow set itself
+ */
+public interface JimpleLattice<L extends JimpleLattice<L>> {
+
+	/**
+	 * Copies this flow set into the given one
+	 *
+	 * @param dest
+	 *            The flow set to overwrite
+	 */
+	public void copy(L dest);
+
+	/**
+	 * Computes the join of this flow set and the given one
+	 *
+	 * @param other
+	 *            The flow set to join with this one
+	 * @param out
+	 *            The flow set receiving the result. Must be distinct from both
+	 *            inputs.
+	 */
+	public void merge(L other, L out);
+
+	/**
+	 * Computes the widening of this flow set, the one from the previous visit
+	 * of a loop head, with the given one, the newly joined one. For lattices of
+	 * finite height, this may simply be the join.
+	 *
+	 * @param newer
+	 *            The flow set of the current visit
+	 * @param out
+	 *            The flow set receiving the result. Must be distinct from both
+	 *            inputs.
+	 */
+	public void widen(L newer, L out);
+
+}
@@ -0,0 +1,415 @@
+package soot.jimple.infoflow;
+
+/**
+ * Immutable map from int keys to objects based on a bitmap-compressed array
+ * mapped trie. Keys are used directly as trie paths, so lookups and updates
+ * neither box nor hash the keys. Every update returns a new map that shares
+ * all untouched nodes with the original one, so copying a map is a pointer
+ * assignment and an update only allocates the nodes on the path to the
+ * changed entry. Values may be null.
+ *
+ * @param <V>
+ *            The type of the values
+ */
+public final class PersistentIntMap<V> {
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	private static final Object NOT_FOUND = new Object();
+
+	@SuppressWarnings("rawtypes")
+	private static final PersistentIntMap EMPTY = new PersistentIntMap(null);
+
+	/**
+	 * Callback for iterating over the entries of a map
+	 *
+	 * @param <V>
+	 *            The type of the values
+	 */
+	public interface EntryVisitor<V> {
+		void visit(int key, V value);
+	}
+
+	private final Node root;
+
+	private PersistentIntMap(Node root) {
+		this.root = root;
+	}
+
+	/**
+	 * Gets the empty map
+	 *
+	 * @return The empty map
+	 */
+	@SuppressWarnings("unchecked")
+	public static <V> PersistentIntMap<V> empty() {
+		return EMPTY;
+	}
+
+	private PersistentIntMap<V> withRoot(Node newRoot) {
+		if (newRoot == root)
+			return this;
+		if (newRoot == null)
+			return empty();
+		return new PersistentIntMap<V>(newRoot);
+	}
+
+	public int size() {
+		return root == null ? 0 : root.size;
+	}
+
+	public boolean isEmpty() {
+		return root == null;
+	}
+
+	public boolean containsKey(int key) {
+		return root != null && root.find(0, key, NOT_FOUND) != NOT_FOUND;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		if (root == null)
+			return null;
+		return (V) root.find(0, key, null);
+	}
+
+	/**
+	 * Creates a map that additionally maps the given key to the given value
+	 *
+	 * @param key
+	 *            The key to add
+	 * @param value
+	 *            The value to associate with the key
+	 * @return The new map. If the key was already mapped to the very same
+	 *         value, this map is returned.
+	 */
+	public PersistentIntMap<V> plus(int key, V value) {
+		return withRoot((root == null ? Node.EMPTY : root).assoc(0, key, value));
+	}
+
+	/**
+	 * Creates a map without the mapping for the given key
+	 *
+	 * @param key
+	 *            The key to remove
+	 * @return The new map. If the key was not contained, this map is returned.
+	 */
+	public PersistentIntMap<V> minus(int key) {
+		if (root == null)
+			return this;
+		return withRoot(root.without(0, key));
+	}
+
+	/**
+	 * Creates the union of this map and the given one. If both maps contain
+	 * the same key, the value from the other map wins, just as with
+	 * {@link java.util.Map#putAll(java.util.Map)}. Subtrees shared between
+	 * both maps are not traversed, and a union that does not add anything
+	 * returns one of the original maps.
+	 *
+	 * @param other
+	 *            The map whose entries to add
+	 * @return The union of both maps
+	 */
+	public PersistentIntMap<V> plusAll(PersistentIntMap<V> other) {
+		if (other.root == null || other.root == root)
+			return this;
+		if (root == null)
+			return other;
+		Node newRoot = union(root, other.root, 0);
+		return newRoot == other.root ? other : withRoot(newRoot);
+	}
+
+	/**
+	 * Invokes the given visitor for every entry in this map
+	 *
+	 * @param visitor
+	 *            The visitor to invoke
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEach(EntryVisitor<? super V> visitor) {
+		if (root != null)
+			root.forEach((EntryVisitor<Object>) visitor);
+	}
+
+	/**
+	 * Gets the hash code of this map. The hash code is maintained
+	 * incrementally in the trie nodes, so this is a constant-time operation.
+	 */
+	@Override
+	public int hashCode() {
+		return root == null ? 0 : root.hash;
+	}
+
+	/**
+	 * Checks whether this map contains the same entries as the given one.
+	 * Since child nodes are only kept while they hold at least two entries,
+	 * the shape of the trie only depends on its keys. Equal maps therefore
+	 * have equal shapes, and subtrees shared between both maps are not
+	 * traversed.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof PersistentIntMap))
+			return false;
+		PersistentIntMap<?> other = (PersistentIntMap<?>) obj;
+		if (root == other.root)
+			return true;
+		if (root == null || other.root == null)
+			return false;
+		return nodeEquals(root, other.root);
+	}
+
+	private static boolean nodeEquals(Node a, Node b) {
+		if (a == b)
+			return true;
+		if (a.size != b.size || a.hash != b.hash || a.bitmap != b.bitmap
+				|| a.nodeMap != b.nodeMap)
+			return false;
+		int i = 0;
+		for (int rest = a.bitmap; rest != 0; rest &= rest - 1, i++) {
+			if ((a.nodeMap & (rest & -rest)) != 0) {
+				if (!nodeEquals((Node) a.vals[i], (Node) b.vals[i]))
+					return false;
+			} else if (a.keys[i] != b.keys[i]
+					|| !valueEquals(a.vals[i], b.vals[i]))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean valueEquals(Object a, Object b) {
+		return a == b || (a != null && a.equals(b));
+	}
+
+	private static int entryHash(int key, Object val) {
+		return key ^ (val == null ? 0 : val.hashCode());
+	}
+
+	private static int bitpos(int key, int shift) {
+		return 1 << ((key >>> shift) & MASK);
+	}
+
+	// Placeholder key of slots that hold a child node
+	private static final int NODE_KEY = 0;
+
+	/**
+	 * Creates a node holding the two given entries, whose keys must differ
+	 */
+	private static Node createNode(int shift, int key1, Object val1,
+			int key2, Object val2) {
+		return Node.EMPTY.assoc(shift, key1, val1).assoc(shift, key2, val2);
+	}
+
+	/**
+	 * Computes the union of two nodes on the same trie level. Values from b
+	 * take precedence.
+	 */
+	private static Node union(Node a, Node b, int shift) {
+		if (a == b)
+			return a;
+		int bitmap = a.bitmap | b.bitmap;
+		int count = Integer.bitCount(bitmap);
+		int[] keys = new int[count];
+		Object[] vals = new Object[count];
+		int nodeMap = 0;
+		boolean sameAsA = bitmap == a.bitmap;
+		boolean sameAsB = bitmap == b.bitmap;
+		int ia = 0, ib = 0, i = 0;
+		for (int rest = bitmap; rest != 0; rest &= rest - 1) {
+			int bit = rest & -rest;
+			boolean inA = (a.bitmap & bit) != 0;
+			boolean inB = (b.bitmap & bit) != 0;
+			boolean nodeA = (a.nodeMap & bit) != 0;
+			boolean nodeB = (b.nodeMap & bit) != 0;
+			if (inA && !inB) {
+				keys[i] = a.keys[ia];
+				vals[i] = a.vals[ia];
+				if (nodeA)
+					nodeMap |= bit;
+				ia++;
+			} else if (inB && !inA) {
+				keys[i] = b.keys[ib];
+				vals[i] = b.vals[ib];
+				if (nodeB)
+					nodeMap |= bit;
+				ib++;
+			} else {
+				int ka = a.keys[ia], kb = b.keys[ib];
+				Object va = a.vals[ia], vb = b.vals[ib];
+				ia++;
+				ib++;
+				if (nodeA && nodeB) {
+					vals[i] = union((Node) va, (Node) vb, shift + BITS);
+					nodeMap |= bit;
+				} else if (nodeA) {
+					vals[i] = ((Node) va).assoc(shift + BITS, kb, vb);
+					nodeMap |= bit;
+				} else if (nodeB) {
+					Node sub = (Node) vb;
+					vals[i] = sub.find(shift + BITS, ka, NOT_FOUND) == NOT_FOUND ? sub
+							.assoc(shift + BITS, ka, va) : sub;
+					nodeMap |= bit;
+				} else if (ka == kb) {
+					keys[i] = kb;
+					vals[i] = vb;
+				} else {
+					vals[i] = createNode(shift + BITS, ka, va, kb, vb);
+					nodeMap |= bit;
+				}
+				sameAsA &= nodeA == ((nodeMap & bit) != 0)
+						&& keys[i] == ka && vals[i] == va;
+				sameAsB &= nodeB == ((nodeMap & bit) != 0)
+						&& keys[i] == kb && vals[i] == vb;
+			}
+			i++;
+		}
+		sameAsA &= nodeMap == a.nodeMap;
+		sameAsB &= nodeMap == b.nodeMap;
+		if (sameAsA)
+			return a;
+		if (sameAsB)
+			return b;
+		return new Node(bitmap, nodeMap, keys, vals);
+	}
+
+	/**
+	 * Trie node. Slot i holds either an entry (keys[i], vals[i]) or, if the
+	 * corresponding bit in nodeMap is set, a child node in vals[i]. A child
+	 * node always holds at least two entries: it is only created when two
+	 * keys collide, and {@link #without(int, int)} folds a child that shrinks
+	 * to one entry back into its parent.
+	 */
+	private static final class Node {
+		static final Node EMPTY = new Node(0, 0, new int[0], new Object[0]);
+
+		final int bitmap;
+		final int nodeMap;
+		final int[] keys;
+		final Object[] vals;
+		final int size;
+		final int hash;
+
+		Node(int bitmap, int nodeMap, int[] keys, Object[] vals) {
+			this.bitmap = bitmap;
+			this.nodeMap = nodeMap;
+			this.keys = keys;
+			this.vals = vals;
+
+			int size = 0;
+			int hash = 0;
+			int i = 0;
+			for (int rest = bitmap; rest != 0; rest &= rest - 1, i++) {
+				if ((nodeMap & (rest & -rest)) != 0) {
+					Node child = (Node) vals[i];
+					size += child.size;
+					hash += child.hash;
+				} else {
+					size++;
+					hash += entryHash(keys[i], vals[i]);
+				}
+			}
+			this.size = size;
+			this.hash = hash;
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		Object find(int shift, int key, Object notFound) {
+			Node node = this;
+			while (true) {
+				int bit = bitpos(key, shift);
+				if ((node.bitmap & bit) == 0)
+					return notFound;
+				int idx = node.index(bit);
+				if ((node.nodeMap & bit) == 0)
+					return node.keys[idx] == key ? node.vals[idx] : notFound;
+				node = (Node) node.vals[idx];
+				shift += BITS;
+			}
+		}
+
+		Node assoc(int shift, int key, Object val) {
+			int bit = bitpos(key, shift);
+			int idx = index(bit);
+			if ((bitmap & bit) != 0) {
+				if ((nodeMap & bit) != 0) {
+					Node child = (Node) vals[idx];
+					Node n = child.assoc(shift + BITS, key, val);
+					return n == child ? this : withSlot(idx, NODE_KEY, n,
+							nodeMap);
+				}
+				if (keys[idx] == key)
+					return vals[idx] == val ? this : withSlot(idx, key, val,
+							nodeMap);
+				return withSlot(idx, NODE_KEY,
+						createNode(shift + BITS, keys[idx], vals[idx], key, val),
+						nodeMap | bit);
+			}
+			int[] newKeys = new int[keys.length + 1];
+			Object[] newVals = new Object[vals.length + 1];
+			System.arraycopy(keys, 0, newKeys, 0, idx);
+			System.arraycopy(vals, 0, newVals, 0, idx);
+			newKeys[idx] = key;
+			newVals[idx] = val;
+			System.arraycopy(keys, idx, newKeys, idx + 1, keys.length - idx);
+			System.arraycopy(vals, idx, newVals, idx + 1, vals.length - idx);
+			return new Node(bitmap | bit, nodeMap, newKeys, newVals);
+		}
+
+		Node without(int shift, int key) {
+			int bit = bitpos(key, shift);
+			if ((bitmap & bit) == 0)
+				return this;
+			int idx = index(bit);
+			if ((nodeMap & bit) != 0) {
+				Node child = (Node) vals[idx];
+				Node n = child.without(shift + BITS, key);
+				if (n == child)
+					return this;
+				// A child that is left with a single entry is folded back
+				// into this node, so that the shape of the trie only depends
+				// on its keys
+				if (n != null && n.size == 1)
+					return withSlot(idx, n.keys[0], n.vals[0], nodeMap & ~bit);
+				if (n != null)
+					return withSlot(idx, NODE_KEY, n, nodeMap);
+			} else if (keys[idx] != key)
+				return this;
+
+			if (bitmap == bit)
+				return null;
+			int[] newKeys = new int[keys.length - 1];
+			Object[] newVals = new Object[vals.length - 1];
+			System.arraycopy(keys, 0, newKeys, 0, idx);
+			System.arraycopy(vals, 0, newVals, 0, idx);
+			System.arraycopy(keys, idx + 1, newKeys, idx, keys.length - idx - 1);
+			System.arraycopy(vals, idx + 1, newVals, idx, vals.length - idx - 1);
+			return new Node(bitmap ^ bit, nodeMap & ~bit, newKeys, newVals);
+		}
+
+		private Node withSlot(int idx, int key, Object val, int newNodeMap) {
+			int[] newKeys = keys.clone();
+			Object[] newVals = vals.clone();
+			newKeys[idx] = key;
+			newVals[idx] = val;
+			return new Node(bitmap, newNodeMap, newKeys, newVals);
+		}
+
+		void forEach(EntryVisitor<Object> visitor) {
+			int i = 0;
+			for (int rest = bitmap; rest != 0; rest &= rest - 1, i++) {
+				if ((nodeMap & (rest & -rest)) != 0)
+					((Node) vals[i]).forEach(visitor);
+				else
+					visitor.visit(keys[i], vals[i]);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,247 @@
+package soot.jimple.infoflow;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Collects wall time, CPU time, allocated bytes and a bound on the peak heap
+ * usage for the phases of an analysis run and writes them as a JSON report.
+ *
+ * The phases run on many worker threads, so CPU time is taken for the whole
+ * process. If the JVM cannot measure it, it is reported as -1. Allocations
+ * are tracked per thread: a thread that is alive at both ends of a phase
+ * contributes the bytes it allocated in between, a thread started during the
+ * phase all of its bytes. Allocations of threads that terminate before the
+ * phase ends are lost.
+ *
+ * The peak heap bound is the sum of the peak usage of all heap pools, whose
+ * peaks are reset when a phase starts. The pools do not reach their peaks at
+ * the same moment, so this is an upper bound on the heap that was actually
+ * used at any one time, not the peak itself.
+ */
+public class PhaseProfiler {
+
+	/**
+	 * Measurements of a single phase
+	 */
+	public static class Phase {
+		private final String name;
+		private final long startWall;
+		private final long startCpu;
+		private final Map<Long, Long> startAllocated;
+
+		private long wallNanos = -1;
+		private long cpuNanos = -1;
+		private long allocatedBytes = -1;
+		private long peakHeapBoundBytes = -1;
+
+		private Phase(String name) {
+			this.name = name;
+			resetPeakHeap();
+			this.startAllocated = allocatedBytes();
+			this.startCpu = cpuTime();
+			this.startWall = System.nanoTime();
+		}
+
+		/**
+		 * Ends this phase and records its measurements. Ending a phase twice
+		 * has no effect.
+		 */
+		public void end() {
+			if (wallNanos >= 0)
+				return;
+			wallNanos = System.nanoTime() - startWall;
+			long cpu = cpuTime();
+			cpuNanos = cpu < 0 || startCpu < 0 ? -1 : cpu - startCpu;
+			allocatedBytes = allocatedSince(startAllocated);
+			peakHeapBoundBytes = peakHeapBound();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getWallNanos() {
+			return wallNanos;
+		}
+
+		public long getCpuNanos() {
+			return cpuNanos;
+		}
+
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		public long getPeakHeapBoundBytes() {
+			return peakHeapBoundBytes;
+		}
+	}
+
+	private final List<Phase> phases = new ArrayList<Phase>();
+
+	/**
+	 * Starts measuring a new phase
+	 *
+	 * @param name
+	 *            The name of the phase as it shall appear in the report
+	 * @return The phase, on which {@link Phase#end()} must be called once it
+	 *         is done
+	 */
+	public synchronized Phase start(String name) {
+		Phase phase = new Phase(name);
+		phases.add(phase);
+		return phase;
+	}
+
+	/**
+	 * Drops all phases measured so far
+	 */
+	public synchronized void reset() {
+		phases.clear();
+	}
+
+	/**
+	 * Gets the phases measured so far
+	 *
+	 * @return The phases in the order in which they were started
+	 */
+	public synchronized List<Phase> getPhases() {
+		return new ArrayList<Phase>(phases);
+	}
+
+	/**
+	 * Renders the phases measured so far as a JSON document
+	 *
+	 * @return The JSON report
+	 */
+	public synchronized String toJson() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n  \"phases\": [");
+		boolean first = true;
+		for (Phase phase : phases) {
+			sb.append(first ? "\n" : ",\n");
+			first = false;
+			sb.append("    {\"name\": \"").append(escape(phase.name))
+					.append("\", \"wallMs\": ").append(millis(phase.wallNanos))
+					.append(", \"cpuMs\": ").append(millis(phase.cpuNanos))
+					.append(", \"allocatedBytes\": ")
+					.append(phase.allocatedBytes)
+					.append(", \"peakHeapBoundBytes\": ")
+					.append(phase.peakHeapBoundBytes).append("}");
+		}
+		sb.append("\n  ]\n}\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the JSON report to the given file
+	 *
+	 * @param fileName
+	 *            The file to write the report to
+	 * @throws IOException
+	 *             Thrown if the file cannot be written
+	 */
+	public void writeReport(String fileName) throws IOException {
+		Writer wr = null;
+		try {
+			wr = new FileWriter(fileName);
+			wr.write(toJson());
+		} finally {
+			if (wr != null)
+				wr.close();
+		}
+	}
+
+	private static String millis(long nanos) {
+		return nanos < 0 ? "-1" : String.format(Locale.ROOT, "%.3f",
+				nanos / 1e6);
+	}
+
+	private static String escape(String str) {
+		return str.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	private static long cpuTime() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if (os instanceof com.sun.management.OperatingSystemMXBean)
+			return ((com.sun.management.OperatingSystemMXBean) os)
+					.getProcessCpuTime();
+		// The CPU time of the current thread would miss the workers
+		return -1;
+	}
+
+	/**
+	 * Gets the number of bytes allocated so far by each live thread
+	 *
+	 * @return The allocated bytes by thread id, or null if the JVM does not
+	 *         support measuring them
+	 */
+	private static Map<Long, Long> allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean))
+			return null;
+		com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+		if (!sunThreads.isThreadAllocatedMemorySupported()
+				|| !sunThreads.isThreadAllocatedMemoryEnabled())
+			return null;
+		long[] ids = threads.getAllThreadIds();
+		long[] allocated = sunThreads.getThreadAllocatedBytes(ids);
+		Map<Long, Long> res = new HashMap<Long, Long>(ids.length * 2);
+		for (int i = 0; i < ids.length; i++)
+			// Threads that died in the meantime are reported as -1
+			if (allocated[i] >= 0)
+				res.put(ids[i], allocated[i]);
+		return res;
+	}
+
+	/**
+	 * Gets the number of bytes the live threads allocated since the given
+	 * snapshot was taken
+	 *
+	 * @param start
+	 *            The snapshot taken at the start of the phase
+	 * @return The allocated bytes, or -1 if they cannot be measured
+	 */
+	private static long allocatedSince(Map<Long, Long> start) {
+		Map<Long, Long> end = allocatedBytes();
+		if (start == null || end == null)
+			return -1;
+		long sum = 0;
+		for (Map.Entry<Long, Long> entry : end.entrySet()) {
+			Long before = start.get(entry.getKey());
+			long delta = before == null ? entry.getValue() : entry.getValue()
+					- before;
+			if (delta > 0)
+				sum += delta;
+		}
+		return sum;
+	}
+
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP && pool.isValid())
+				pool.resetPeakUsage();
+	}
+
+	private static long peakHeapBound() {
+		long sum = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()
+					&& pool.getPeakUsage() != null)
+				sum += pool.getPeakUsage().getUsed();
+		return sum;
+	}
+
+}
@@ -0,0 +1,285 @@
+package soot.jimple.infoflow;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ManagedBlocker;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Work-stealing scheduler shared by all IFDS solvers of one analysis run.
+ * The solvers still need an executor of their own, since they shut it down
+ * when they are done and wait for it to run dry. {@link #newPhase(String)}
+ * hands out such executors. They only count their own tasks and forward them
+ * to a single {@link ForkJoinPool}, so all phases share one set of worker
+ * threads. Tasks submitted from a worker thread go to that worker's own
+ * deque, idle workers steal from the others.
+ */
+public class SolverScheduler {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(SolverScheduler.class);
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates a new scheduler
+	 *
+	 * @param numThreads
+	 *            The number of worker threads
+	 */
+	public SolverScheduler(int numThreads) {
+		this.pool = new ForkJoinPool(Math.max(1, numThreads),
+				ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+	}
+
+	/**
+	 * Creates a new executor for one phase of the analysis. Its tasks run on
+	 * the shared worker threads, but termination is tracked separately for
+	 * every phase.
+	 *
+	 * @param name
+	 *            The name of the phase
+	 * @return The executor to be used by the solvers of the phase
+	 */
+	public CompletionSignallingExecutor newPhase(String name) {
+		return new PhaseExecutor(name);
+	}
+
+	/**
+	 * Runs the given tasks on the worker threads and waits for all of them
+	 * to complete
+	 *
+	 * @param tasks
+	 *            The tasks to run
+	 * @return The futures of the tasks, in the order of the tasks
+	 * @throws InterruptedException
+	 *             Thrown if the current thread is interrupted while waiting
+	 */
+	public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks)
+			throws InterruptedException {
+		return pool.invokeAll(tasks);
+	}
+
+	/**
+	 * Runs a task that mostly waits for other work, e.g. the driver of a
+	 * solver that blocks until its phase is done. The task runs on a worker
+	 * thread, and the pool starts a spare worker while it is blocked, so the
+	 * number of threads doing actual work stays the same.
+	 *
+	 * @param task
+	 *            The blocking task to run
+	 * @return The future of the task
+	 */
+	public <T> Future<T> submitBlocking(final Callable<T> task) {
+		return pool.submit(new Callable<T>() {
+
+			@Override
+			public T call() throws Exception {
+				BlockingCall<T> call = new BlockingCall<T>(task);
+				ForkJoinPool.managedBlock(call);
+				return call.getResult();
+			}
+
+		});
+	}
+
+	/**
+	 * Gets the number of worker threads of this scheduler
+	 *
+	 * @return The number of worker threads
+	 */
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Stops the worker threads. Tasks that are still running are completed.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Executor of a single phase. The underlying thread pool of the base class
+	 * never starts a thread, all tasks are run by the shared pool.
+	 */
+	private class PhaseExecutor extends CompletionSignallingExecutor {
+
+		private final String name;
+
+		PhaseExecutor(String name) {
+			super(0, 1, 0, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+			this.name = name;
+		}
+
+		@Override
+		public void execute(final Runnable command) {
+			taskSubmitted();
+			ForkJoinTask<?> task = new ForkJoinTask<Void>() {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public Void getRawResult() {
+					return null;
+				}
+
+				@Override
+				protected void setRawResult(Void value) {
+				}
+
+				@Override
+				protected boolean exec() {
+					try {
+						command.run();
+					} catch (Throwable t) {
+						logger.error("Task in phase " + name + " failed", t);
+						taskFailed(t);
+					} finally {
+						taskDone();
+					}
+					return true;
+				}
+
+			};
+			if (ForkJoinTask.getPool() == pool)
+				task.fork();
+			else
+				pool.execute(task);
+		}
+
+		@Override
+		public String toString() {
+			return "Phase " + name + " (" + getOutstandingTasks()
+					+ " tasks outstanding)";
+		}
+
+	}
+
+	/**
+	 * Adapter that runs a blocking task as a {@link ManagedBlocker}
+	 */
+	private static class BlockingCall<T> implements ManagedBlocker {
+
+		private final Callable<T> task;
+		private boolean done = false;
+		private T result = null;
+		private Exception exception = null;
+
+		BlockingCall(Callable<T> task) {
+			this.task = task;
+		}
+
+		@Override
+		public boolean block() {
+			try {
+				result = task.call();
+			} catch (Exception ex) {
+				exception = ex;
+			}
+			done = true;
+			return true;
+		}
+
+		@Override
+		public boolean isReleasable() {
+			return done;
+		}
+
+		T getResult() throws Exception {
+			if (exception != null)
+				throw exception;
+			return result;
+		}
+
+	}
+
+	/**
+	 * Gets the number of processors this process may actually use. Inside a
+	 * container, the CPU quota of the cgroup is usually much lower than the
+	 * number of cores the JVM sees, and sizing the thread pools by the core
+	 * count only leads to throttling.
+	 *
+	 * @return The number of usable processors, at least 1
+	 */
+	public static int availableProcessors() {
+		int cpus = Runtime.getRuntime().availableProcessors();
+		int quota = cgroupCpuLimit();
+		if (quota > 0 && quota < cpus) {
+			logger.info("Limiting parallelism to cgroup CPU quota of {}",
+					quota);
+			cpus = quota;
+		}
+		return Math.max(1, cpus);
+	}
+
+	/**
+	 * Reads the CPU quota of the cgroup this process runs in. Both the
+	 * unified hierarchy (cpu.max) and the v1 CFS files are supported.
+	 *
+	 * @return The quota rounded up to whole CPUs, or -1 if there is no quota
+	 */
+	private static int cgroupCpuLimit() {
+		// cgroup v2: "<quota> <period>" or "max <period>"
+		String max = readFirstLine(new File("/sys/fs/cgroup/cpu.max"));
+		if (max != null) {
+			String[] parts = max.trim().split("\\s+");
+			if (parts.length == 2 && !parts[0].equals("max"))
+				return cpusForQuota(parts[0], parts[1]);
+			return -1;
+		}
+
+		// cgroup v1
+		String quota = readFirstLine(new File(
+				"/sys/fs/cgroup/cpu/cpu.cfs_quota_us"));
+		String period = readFirstLine(new File(
+				"/sys/fs/cgroup/cpu/cpu.cfs_period_us"));
+		if (quota != null && period != null)
+			return cpusForQuota(quota.trim(), period.trim());
+		return -1;
+	}
+
+	private static int cpusForQuota(String quota, String period) {
+		try {
+			long q = Long.parseLong(quota);
+			long p = Long.parseLong(period);
+			if (q <= 0 || p <= 0)
+				return -1;
+			return (int) Math.max(1, (q + p - 1) / p);
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+
+	private static String readFirstLine(File file) {
+		if (!file.canRead())
+			return null;
+		BufferedReader rdr = null;
+		try {
+			rdr = new BufferedReader(new FileReader(file));
+			return rdr.readLine();
+		} catch (IOException ex) {
+			return null;
+		} finally {
+			if (rdr != null)
+				try {
+					rdr.close();
+				} catch (IOException e) {
+					// ignore
+				}
+		}
+	}
+
+}
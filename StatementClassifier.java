@@ -0,0 +1,230 @@
+package soot.jimple.infoflow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import soot.G;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.jimple.Stmt;
+import soot.jimple.infoflow.solver.IInfoflowCFG;
+import soot.jimple.infoflow.source.ISourceSinkManager;
+
+/**
+ * Classifies statements by the roles they play in the analysis. The roles
+ * that only depend on the callee of an invocation are computed once per
+ * {@link SootMethod} and cached as a bitmask. Sources and sinks are decided
+ * by the source and sink manager, which may look at the whole statement, so
+ * these two roles are added per statement.
+ *
+ * The subclasses of android.content.Context, android.app.Activity and
+ * android.content.Intent are computed once when the classifier is created, so
+ * no class hierarchy has to be built for any check. A classifier is only
+ * valid for the Soot instance it was created for, {@link #v()} creates a new
+ * one after Soot has been reset.
+ */
+public class StatementClassifier {
+
+	/** Call to startActivity on a subclass of android.content.Context */
+	public static final int INTENT_SINK = 1;
+	/** Call to setResult on a subclass of android.app.Activity */
+	public static final int INTENT_RESULT_SINK = 1 << 1;
+	/** Call to one of the putExtra methods of android.content.Intent */
+	public static final int PUT_EXTRA = 1 << 2;
+	/** Call to a getIntent() method */
+	public static final int GET_INTENT = 1 << 3;
+	/** Statement the source and sink manager considers a source */
+	public static final int SOURCE = 1 << 4;
+	/** Statement the source and sink manager considers a sink */
+	public static final int SINK = 1 << 5;
+	/** Call to Intent.setAction() */
+	public static final int SET_ACTION = 1 << 6;
+	/** Call to Intent.setClass() or Intent.setClassName() */
+	public static final int SET_CLASS = 1 << 7;
+	/** Call to a constructor of android.content.Intent */
+	public static final int INTENT_INIT = 1 << 8;
+
+	/** Calls that configure an intent before it is sent */
+	public static final int INTENT_BUILDER = PUT_EXTRA | SET_ACTION
+			| SET_CLASS | INTENT_INIT;
+
+	private static StatementClassifier instance;
+
+	private final G soot = G.v();
+	private final Map<SootMethod, Integer> roles = new ConcurrentHashMap<SootMethod, Integer>();
+	private final SubclassClosure contextClasses = new SubclassClosure(
+			"android.content.Context");
+	private final SubclassClosure activityClasses = new SubclassClosure(
+			"android.app.Activity");
+	private final SubclassClosure intentClasses = new SubclassClosure(
+			"android.content.Intent");
+
+	/**
+	 * Gets the classifier for the current Soot scene
+	 *
+	 * @return The shared classifier
+	 */
+	public static synchronized StatementClassifier v() {
+		if (instance == null || instance.soot != G.v())
+			instance = new StatementClassifier();
+		return instance;
+	}
+
+	/**
+	 * Drops the shared classifier together with its cached roles. Must be
+	 * called whenever Soot is reset.
+	 */
+	public static synchronized void reset() {
+		instance = null;
+	}
+
+	/**
+	 * Gets the roles of the given statement that depend on its callee only
+	 *
+	 * @param stmt
+	 *            The statement to classify
+	 * @return The bitmask of roles, 0 if the statement is no invocation
+	 */
+	public int getRoles(Stmt stmt) {
+		if (stmt == null || !stmt.containsInvokeExpr())
+			return 0;
+		return getCalleeRoles(stmt.getInvokeExpr().getMethod());
+	}
+
+	/**
+	 * Checks whether the callee of the given statement plays the given role
+	 *
+	 * @param stmt
+	 *            The statement to check
+	 * @param role
+	 *            The role to check for
+	 * @return True if the statement calls a method with the given role
+	 */
+	public boolean hasRole(Stmt stmt, int role) {
+		return (getRoles(stmt) & role) != 0;
+	}
+
+	/**
+	 * Gets all roles of the given statement, including whether it is a source
+	 * or a sink
+	 *
+	 * @param stmt
+	 *            The statement to classify
+	 * @param sourcesSinks
+	 *            The manager object for identifying sources and sinks
+	 * @param icfg
+	 *            The interprocedural control flow graph
+	 * @return The bitmask of roles
+	 */
+	public int classify(Stmt stmt, ISourceSinkManager sourcesSinks,
+			IInfoflowCFG icfg) {
+		int r = getRoles(stmt);
+		if (sourcesSinks.getSourceInfo(stmt, icfg) != null)
+			r |= SOURCE;
+		if (sourcesSinks.isSink(stmt, icfg))
+			r |= SINK;
+		return r;
+	}
+
+	/**
+	 * Gets the roles of a call to the given method
+	 *
+	 * @param callee
+	 *            The method being called
+	 * @return The bitmask of roles
+	 */
+	public int getCalleeRoles(SootMethod callee) {
+		Integer r = roles.get(callee);
+		if (r == null) {
+			r = computeRoles(callee);
+			roles.put(callee, r);
+		}
+		return r;
+	}
+
+	private int computeRoles(SootMethod callee) {
+		int r = 0;
+		String sig = callee.getSignature();
+		// FIXME: Check the method name better!
+		if (sig.contains("startActivity")
+				&& contextClasses.contains(callee.getDeclaringClass()))
+			r |= INTENT_SINK;
+		if (sig.contains("setResult")
+				&& activityClasses.contains(callee.getDeclaringClass()))
+			r |= INTENT_RESULT_SINK;
+		if (intentClasses.contains(callee.getDeclaringClass())) {
+			String name = callee.getName();
+			if (name.equals("putExtra"))
+				r |= PUT_EXTRA;
+			else if (name.equals("setAction"))
+				r |= SET_ACTION;
+			else if (name.equals("setClass") || name.equals("setClassName"))
+				r |= SET_CLASS;
+			else if (name.equals("<init>"))
+				r |= INTENT_INIT;
+		}
+		if (callee.getSubSignature().contains(
+				"android.content.Intent getIntent()"))
+			r |= GET_INTENT;
+		return r;
+	}
+
+	/**
+	 * The set of all subclasses of a given class, including the class itself.
+	 * The set is computed for all classes in the scene up front. Classes that
+	 * are added to the scene later are looked up along their superclass chain
+	 * and then remembered as well.
+	 */
+	private static class SubclassClosure {
+
+		private final SootClass root;
+		private final Map<SootClass, Boolean> members = new ConcurrentHashMap<SootClass, Boolean>();
+
+		SubclassClosure(String rootName) {
+			this.root = Scene.v().containsClass(rootName) ? Scene.v()
+					.getSootClass(rootName) : null;
+			if (root != null)
+				for (SootClass sc : new ArrayList<SootClass>(Scene.v()
+						.getClasses()))
+					contains(sc);
+		}
+
+		/**
+		 * Checks whether the given class is the root class or one of its
+		 * subclasses
+		 */
+		boolean contains(SootClass sc) {
+			if (root == null)
+				return false;
+			Boolean known = members.get(sc);
+			if (known != null)
+				return known;
+
+			// Walk up until we reach a class we already know about. All
+			// classes on the way share its answer.
+			List<SootClass> path = new ArrayList<SootClass>();
+			boolean result = false;
+			for (SootClass c = sc; c != null; c = c.hasSuperclass() ? c
+					.getSuperclass() : null) {
+				if (c == root) {
+					result = true;
+					break;
+				}
+				known = members.get(c);
+				if (known != null) {
+					result = known;
+					break;
+				}
+				path.add(c);
+			}
+			for (SootClass c : path)
+				members.put(c, result);
+			return result;
+		}
+
+	}
+
+}
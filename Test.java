@@ -39,6 +39,8 @@ import soot.Value;
 import soot.jimple.AssignStmt;
 import soot.jimple.StaticFieldRef;
 import soot.jimple.Stmt;
+import soot.jimple.infoflow.AktAnnotations;
+import soot.jimple.infoflow.Condition;
 import soot.jimple.infoflow.IInfoflow.CallgraphAlgorithm;
 import soot.jimple.infoflow.Infoflow;
 import soot.jimple.infoflow.InfoflowResults;
@@ -53,14 +55,13 @@ import soot.jimple.infoflow.solver.IInfoflowCFG;
 import soot.jimple.infoflow.taintWrappers.EasyTaintWrapper;
 import soot.jimple.infoflow.taintWrappers.ITaintPropagationWrapper;
 import soot.jimple.infoflow.taintWrappers.TaintWrapperSet;
-import soot.jimple.infoflow.util.IntentTag;
 import soot.jimple.internal.AbstractInstanceInvokeExpr;
 import soot.jimple.internal.AbstractInvokeExpr;
 import soot.tagkit.Tag;
 
 public class Test {
 	
-	private static final class MyResultsAvailableHandler implements
+	static final class MyResultsAvailableHandler implements
 			ResultsAvailableHandler {
 		private BufferedWriter wr;
 		public String appPkgName;
@@ -136,16 +137,14 @@ public class Test {
 					else {
 						print("<sink method=\"" + escapeXML(getMethSig(sink.getContext())) + "\"");
 					}
-					if (sink.getContext().hasTag("BooleanExpressionTag")) {
-						String value = new String(sink.getContext().getTag("BooleanExpressionTag").getValue());
-						String[] items = value.split(";");
-						String expr = String.join(" AND ", items);
-						print(" cond=\"" + escapeXML(expr) + "\"");
+					Condition cond = AktAnnotations.v().getCondition(sink.getContext());
+					if (cond != null) {
+						print(" cond=\"" + escapeXML(cond) + "\"");
 					}
 					
 					if (Infoflow.isIntentSink(sink.getContext())) {
 						print(" is-intent=\"1\"");
-						print(" intent-id=\"" + escapeXML(((IntentTag) sink.getContext().getTag("IntentID")).getIntentID()) + "\"");
+						print(" intent-id=\"" + escapeXML(AktAnnotations.v().getIntentID(sink.getContext()), "") + "\"");
 						try {
 							AbstractInstanceInvokeExpr ie = (AbstractInstanceInvokeExpr) sink.getContext().getInvokeExpr();							
 							print(" component=\"" + escapeXML(ie.getBase().getType().toString()) + "\"");
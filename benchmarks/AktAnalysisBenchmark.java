@@ -0,0 +1,63 @@
+package soot.jimple.infoflow;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import soot.Body;
+import soot.toolkits.graph.BriefUnitGraph;
+import soot.toolkits.graph.UnitGraph;
+
+/**
+ * Benchmarks the {@link AktAnalysis} on synthetic bodies of growing size and
+ * branch count. The graph is built once per trial, so only the dataflow
+ * itself is measured. Brief graphs are used, since the stub scene has no
+ * exception hierarchy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AktAnalysisBenchmark {
+
+	@Param({ "64", "512", "4096" })
+	public int size;
+
+	@Param({ "1", "8", "64" })
+	public int branches;
+
+	private UnitGraph graph;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		SyntheticScene scene = new SyntheticScene();
+		Body body = scene.createBody(branches, size);
+		graph = new BriefUnitGraph(body);
+		AktAnnotations.reset();
+		Condition.reset();
+	}
+
+	@Benchmark
+	public AktAnalysis analyze() {
+		return new AktAnalysis(graph);
+	}
+
+	@Benchmark
+	public AktSummary analyzeWithSummary() {
+		return new AktAnalysis(graph, new AktSummaries()).getSummary();
+	}
+
+}
@@ -0,0 +1,100 @@
+package soot.jimple.infoflow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import soot.Local;
+import soot.RefType;
+import soot.jimple.Jimple;
+import soot.jimple.StringConstant;
+
+/**
+ * Benchmarks the lattice operations of {@link AktSet} on sets that track a
+ * given number of locals
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AktSetBenchmark {
+
+	@Param({ "8", "64", "512" })
+	public int locals;
+
+	private AktSet left;
+	private AktSet right;
+	private AktSet out;
+
+	private Local property;
+	private Local constant;
+	private Local dest;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		new SyntheticScene();
+		RefType string = RefType.v("java.lang.String");
+		AktBodyIndex index = new AktBodyIndex();
+		left = new AktSet(index);
+		right = new AktSet(index);
+		out = new AktSet(index);
+
+		List<Local> ls = new ArrayList<Local>(locals);
+		for (int i = 0; i < locals; i++)
+			ls.add(Jimple.v().newLocal("l" + i, string));
+		for (int i = 0; i < locals; i++) {
+			AktSet set = i % 2 == 0 ? left : right;
+			if (i % 3 == 0)
+				set.addIntentProperty(ls.get(i), "getAction");
+			else
+				set.addStringConstant(ls.get(i), StringConstant.v("c" + i));
+		}
+
+		property = Jimple.v().newLocal("p", string);
+		constant = Jimple.v().newLocal("c", string);
+		dest = Jimple.v().newLocal("d", string);
+		left.addIntentProperty(property, "getAction");
+		left.addStringConstant(constant, StringConstant.v("ACTION"));
+	}
+
+	@Benchmark
+	public AktSet copy() {
+		left.copy(out);
+		return out;
+	}
+
+	@Benchmark
+	public AktSet merge() {
+		left.merge(right, out);
+		return out;
+	}
+
+	@Benchmark
+	public AktSet processComparison() {
+		left.copy(out);
+		out.processComparison(dest, property, constant);
+		return out;
+	}
+
+	@Benchmark
+	public boolean equalsCopy() {
+		left.copy(out);
+		return left.equals(out);
+	}
+
+}
@@ -0,0 +1,38 @@
+package soot.jimple.infoflow.android.TestApps;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the XML escaping of the result writer on typical method
+ * signatures and on strings that need escaping
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EscapeXMLBenchmark {
+
+	@Param({
+			"<android.app.Activity: void startActivity(android.content.Intent)>",
+			"E(getAction, \"ACTION_VIEW\") == 1 AND E(getAction, \"é\") != 0" })
+	public String input;
+
+	@Benchmark
+	public String escapeXML() {
+		return Test.MyResultsAvailableHandler.escapeXML(input, "");
+	}
+
+}
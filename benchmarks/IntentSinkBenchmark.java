@@ -0,0 +1,72 @@
+package soot.jimple.infoflow;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import soot.Body;
+import soot.Unit;
+import soot.jimple.Stmt;
+import soot.toolkits.graph.BriefUnitGraph;
+import soot.toolkits.graph.UnitGraph;
+
+/**
+ * Benchmarks the intent sink classification and the intent ID resolution
+ * that run during the source and sink scan
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntentSinkBenchmark {
+
+	private UnitGraph graph;
+	private Stmt putExtra;
+	private Stmt startActivity;
+	private IntentIDResolver resolver;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		SyntheticScene scene = new SyntheticScene();
+		Body body = scene.createIntentSinkBody();
+		// The stub scene has no exception classes, so the exceptional graph
+		// cannot be built on it
+		graph = new BriefUnitGraph(body);
+		Iterator<Unit> it = body.getUnits().iterator();
+		it.next();
+		it.next();
+		putExtra = (Stmt) it.next();
+		startActivity = (Stmt) it.next();
+		resolver = new IntentIDResolver(StatementClassifier.v());
+	}
+
+	@Benchmark
+	public boolean isIntentSink() {
+		return Infoflow.isIntentSink(startActivity);
+	}
+
+	@Benchmark
+	public boolean isIntentSinkMiss() {
+		return Infoflow.isIntentSink(putExtra);
+	}
+
+	@Benchmark
+	public Map<Unit, String> resolveIntentIDs() {
+		return resolver.resolve(graph);
+	}
+
+}
@@ -0,0 +1,125 @@
+package soot.jimple.infoflow;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+import soot.jimple.infoflow.config.IInfoflowConfig;
+import soot.jimple.infoflow.source.DefaultSourceSinkManager;
+import soot.options.Options;
+
+/**
+ * End-to-end benchmark that runs the whole analysis on synthetic apps of
+ * growing size and records the time and memory of every phase. Usage:
+ *
+ * <pre>
+ * SyntheticAppBenchmark &lt;libPath&gt; [out.csv] [scale...]
+ * </pre>
+ *
+ * For scale s, the app has s components with 4 callbacks each, 8s intent
+ * sends and relay chains of length 3. The default scales are 1, 4, 16 and
+ * 64. The results are written as CSV to the given file or to stdout.
+ */
+public class SyntheticAppBenchmark {
+
+	private static final int CALLBACKS = 4;
+	private static final int SENDS_PER_COMPONENT = 8;
+	private static final int CHAIN_LENGTH = 3;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err
+					.println("Usage: SyntheticAppBenchmark <libPath> [out.csv] [scale...]");
+			return;
+		}
+		String libPath = args[0];
+		int[] scales = { 1, 4, 16, 64 };
+		if (args.length > 2) {
+			scales = new int[args.length - 2];
+			for (int i = 2; i < args.length; i++)
+				scales[i - 2] = Integer.parseInt(args[i]);
+		}
+
+		boolean toFile = args.length > 1;
+		Writer wr = toFile ? new FileWriter(args[1]) : new PrintWriter(
+				System.out);
+		try {
+			wr.write("scale,components,callbacks,sends,phase,wallMs,cpuMs,allocatedBytes,peakHeapBoundBytes\n");
+			for (int scale : scales) {
+				SyntheticAppGenerator generator = new SyntheticAppGenerator(
+						scale, CALLBACKS, scale * SENDS_PER_COMPONENT,
+						CHAIN_LENGTH);
+				for (PhaseProfiler.Phase phase : run(generator, libPath))
+					wr.write(String.format(Locale.ROOT,
+							"%d,%d,%d,%d,%s,%.3f,%.3f,%d,%d\n", scale, scale,
+							CALLBACKS, scale * SENDS_PER_COMPONENT,
+							phase.getName(), phase.getWallNanos() / 1e6,
+							phase.getCpuNanos() / 1e6,
+							phase.getAllocatedBytes(),
+							phase.getPeakHeapBoundBytes()));
+				wr.flush();
+			}
+		} finally {
+			// Closing the writer on stdout would close stdout as well
+			if (toFile)
+				wr.close();
+			else
+				wr.flush();
+		}
+	}
+
+	/**
+	 * Generates the given app into a temporary directory and analyzes it
+	 *
+	 * @param generator
+	 *            The generator for the app to analyze
+	 * @param libPath
+	 *            The Soot classpath containing the libraries
+	 * @return The phases recorded during the analysis
+	 * @throws IllegalStateException
+	 *             Thrown if the boolean expression tagger did not tag any
+	 *             method body
+	 */
+	static Iterable<PhaseProfiler.Phase> run(SyntheticAppGenerator generator,
+			String libPath) throws IOException {
+		File appDir = File.createTempFile("synthetic", "");
+		if (!appDir.delete())
+			throw new IOException("Could not create directory " + appDir);
+		try {
+			generator.generate(appDir);
+
+			Infoflow infoflow = new Infoflow();
+			infoflow.setSootConfig(new IInfoflowConfig() {
+
+				@Override
+				public void setSootOptions(Options options) {
+					options.set_src_prec(Options.src_prec_jimple);
+				}
+
+			});
+			infoflow.computeInfoflow(appDir.getAbsolutePath(), libPath,
+					SyntheticAppGenerator.ENTRY_POINT,
+					new DefaultSourceSinkManager(generator.getSources(),
+							generator.getSinks()));
+
+			// The app is built to exercise the tagger, a run without it
+			// measures the wrong thing
+			BooleanExpressionTagger tagger = infoflow
+					.getBooleanExpressionTagger();
+			if (tagger == null || tagger.getTaggedCount() == 0)
+				throw new IllegalStateException(
+						"The boolean expression tagger did not tag any body");
+			return infoflow.getPhaseProfiler().getPhases();
+		} finally {
+			File[] files = appDir.listFiles();
+			if (files != null)
+				for (File f : files)
+					f.delete();
+			appDir.delete();
+		}
+	}
+
+}
@@ -0,0 +1,259 @@
+package soot.jimple.infoflow;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Generates synthetic apps as Jimple source files. An app consists of a
+ * number of activities with a number of callbacks each, a main class that
+ * invokes all callbacks, and stubs of the Android classes the code refers to.
+ * Intent sends are spread round-robin over all callbacks. Every send reads a
+ * secret from a source, passes it through a chain of relay methods, puts it
+ * into an intent and starts an activity with that intent, guarded by a check
+ * on the action of the callback's intent.
+ *
+ * The generated apps are deterministic, so runs on different machines
+ * analyze exactly the same code.
+ */
+public class SyntheticAppGenerator {
+
+	public static final String ENTRY_POINT = "<bench.Main: void main(java.lang.String[])>";
+	public static final String SOURCE = "<bench.Sources: java.lang.String secret()>";
+	public static final String SINK = "<android.app.Activity: void startActivity(android.content.Intent)>";
+
+	private final int numComponents;
+	private final int numCallbacks;
+	private final int numIntentSends;
+	private final int chainLength;
+
+	/**
+	 * Creates a new generator
+	 *
+	 * @param numComponents
+	 *            The number of activities in the app
+	 * @param numCallbacks
+	 *            The number of callbacks per activity
+	 * @param numIntentSends
+	 *            The total number of intent sends in the app
+	 * @param chainLength
+	 *            The number of relay methods between each source and its
+	 *            sink
+	 */
+	public SyntheticAppGenerator(int numComponents, int numCallbacks,
+			int numIntentSends, int chainLength) {
+		this.numComponents = Math.max(1, numComponents);
+		this.numCallbacks = Math.max(1, numCallbacks);
+		this.numIntentSends = Math.max(0, numIntentSends);
+		this.chainLength = Math.max(0, chainLength);
+	}
+
+	public List<String> getSources() {
+		return Collections.singletonList(SOURCE);
+	}
+
+	public List<String> getSinks() {
+		return Arrays.asList(SINK);
+	}
+
+	/**
+	 * Writes the Jimple files of the app into the given directory
+	 *
+	 * @param dir
+	 *            The target directory. It is created if it does not exist.
+	 * @throws IOException
+	 *             Thrown if a file cannot be written
+	 */
+	public void generate(File dir) throws IOException {
+		if (!dir.exists() && !dir.mkdirs())
+			throw new IOException("Could not create directory " + dir);
+
+		writeStubs(dir);
+		for (int c = 0; c < numComponents; c++)
+			write(dir, "bench.Component" + c, component(c));
+		write(dir, "bench.Main", mainClass());
+	}
+
+	private static void write(File dir, String className, String jimple)
+			throws IOException {
+		Writer wr = null;
+		try {
+			wr = new FileWriter(new File(dir, className + ".jimple"));
+			wr.write(jimple);
+		} finally {
+			if (wr != null)
+				wr.close();
+		}
+	}
+
+	private void writeStubs(File dir) throws IOException {
+		write(dir, "android.content.Context",
+				"public class android.content.Context extends java.lang.Object\n{\n"
+						+ constructor("android.content.Context",
+								"java.lang.Object") + "}\n");
+		write(dir, "android.app.Activity",
+				"public class android.app.Activity extends android.content.Context\n{\n"
+						+ constructor("android.app.Activity",
+								"android.content.Context")
+						+ "    public void startActivity(android.content.Intent)\n"
+						+ "    {\n"
+						+ "        android.app.Activity r0;\n"
+						+ "        android.content.Intent r1;\n\n"
+						+ "        r0 := @this: android.app.Activity;\n"
+						+ "        r1 := @parameter0: android.content.Intent;\n"
+						+ "        return;\n" + "    }\n" + "}\n");
+		write(dir, "android.content.Intent",
+				"public class android.content.Intent extends java.lang.Object\n{\n"
+						+ constructor("android.content.Intent",
+								"java.lang.Object")
+						+ "    public java.lang.String getAction()\n"
+						+ "    {\n"
+						+ "        android.content.Intent r0;\n\n"
+						+ "        r0 := @this: android.content.Intent;\n"
+						+ "        return \"android.intent.action.MAIN\";\n"
+						+ "    }\n\n"
+						+ "    public android.content.Intent putExtra(java.lang.String, java.lang.String)\n"
+						+ "    {\n"
+						+ "        android.content.Intent r0;\n"
+						+ "        java.lang.String r1, r2;\n\n"
+						+ "        r0 := @this: android.content.Intent;\n"
+						+ "        r1 := @parameter0: java.lang.String;\n"
+						+ "        r2 := @parameter1: java.lang.String;\n"
+						+ "        return r0;\n" + "    }\n" + "}\n");
+		write(dir, "bench.Sources",
+				"public class bench.Sources extends java.lang.Object\n{\n"
+						+ "    public static java.lang.String secret()\n"
+						+ "    {\n"
+						+ "        return \"secret\";\n" + "    }\n" + "}\n");
+	}
+
+	private static String constructor(String className, String superClass) {
+		return "    public void <init>()\n" + "    {\n" + "        "
+				+ className + " r0;\n\n" + "        r0 := @this: " + className
+				+ ";\n" + "        specialinvoke r0.<" + superClass
+				+ ": void <init>()>();\n" + "        return;\n" + "    }\n\n";
+	}
+
+	private String component(int c) {
+		String className = "bench.Component" + c;
+		StringBuilder sb = new StringBuilder();
+		sb.append("public class ").append(className)
+				.append(" extends android.app.Activity\n{\n");
+		sb.append(constructor(className, "android.app.Activity"));
+
+		for (int cb = 0; cb < numCallbacks; cb++)
+			sb.append(callback(c, cb));
+
+		for (int r = 0; r < chainLength; r++) {
+			String next = r + 1 < chainLength ? "        r1 = virtualinvoke r0.<"
+					+ className
+					+ ": java.lang.String relay"
+					+ (r + 1)
+					+ "(java.lang.String)>(r1);\n"
+					: "";
+			sb.append("    public java.lang.String relay").append(r)
+					.append("(java.lang.String)\n    {\n").append("        ")
+					.append(className).append(" r0;\n")
+					.append("        java.lang.String r1;\n\n")
+					.append("        r0 := @this: ").append(className)
+					.append(";\n")
+					.append("        r1 := @parameter0: java.lang.String;\n")
+					.append(next).append("        return r1;\n    }\n\n");
+		}
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	private String callback(int c, int cb) {
+		String className = "bench.Component" + c;
+		int callbackIdx = c * numCallbacks + cb;
+		int totalCallbacks = numComponents * numCallbacks;
+
+		StringBuilder body = new StringBuilder();
+		int sends = 0;
+		for (int s = callbackIdx; s < numIntentSends; s += totalCallbacks) {
+			String label = "label" + sends;
+			body.append("        a").append(sends)
+					.append(" = virtualinvoke r1.<android.content.Intent: java.lang.String getAction()>();\n");
+			body.append("        z").append(sends).append(" = virtualinvoke a")
+					.append(sends)
+					.append(".<java.lang.String: boolean equals(java.lang.Object)>(\"ACTION_")
+					.append(s).append("\");\n");
+			body.append("        if z").append(sends).append(" == 0 goto ")
+					.append(label).append(";\n");
+			body.append("        s").append(sends)
+					.append(" = staticinvoke <bench.Sources: java.lang.String secret()>();\n");
+			if (chainLength > 0)
+				body.append("        s").append(sends)
+						.append(" = virtualinvoke r0.<").append(className)
+						.append(": java.lang.String relay0(java.lang.String)>(s")
+						.append(sends).append(");\n");
+			body.append("        i").append(sends)
+					.append(" = new android.content.Intent;\n");
+			body.append("        specialinvoke i").append(sends)
+					.append(".<android.content.Intent: void <init>()>();\n");
+			body.append("        virtualinvoke i")
+					.append(sends)
+					.append(".<android.content.Intent: android.content.Intent putExtra(java.lang.String,java.lang.String)>(\"key")
+					.append(s).append("\", s").append(sends).append(");\n");
+			body.append("        virtualinvoke r0.<android.app.Activity: void startActivity(android.content.Intent)>(i")
+					.append(sends).append(");\n\n");
+			body.append("     ").append(label).append(":\n");
+			sends++;
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("    public void onCallback").append(cb)
+				.append("(android.content.Intent)\n    {\n");
+		sb.append("        ").append(className).append(" r0;\n");
+		sb.append("        android.content.Intent r1;\n");
+		for (int i = 0; i < sends; i++)
+			sb.append("        java.lang.String a").append(i).append(", s")
+					.append(i).append(";\n        boolean z").append(i)
+					.append(";\n        android.content.Intent i").append(i)
+					.append(";\n");
+		sb.append("\n        r0 := @this: ").append(className).append(";\n");
+		sb.append("        r1 := @parameter0: android.content.Intent;\n");
+		sb.append(body);
+		sb.append("        return;\n    }\n\n");
+		return sb.toString();
+	}
+
+	private String mainClass() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("public class bench.Main extends java.lang.Object\n{\n");
+		sb.append("    public static void main(java.lang.String[])\n    {\n");
+		sb.append("        java.lang.String[] r0;\n");
+		sb.append("        android.content.Intent i0;\n");
+		for (int c = 0; c < numComponents; c++)
+			sb.append("        bench.Component").append(c).append(" c")
+					.append(c).append(";\n");
+		sb.append("\n        r0 := @parameter0: java.lang.String[];\n");
+		sb.append("        i0 = new android.content.Intent;\n");
+		sb.append("        specialinvoke i0.<android.content.Intent: void <init>()>();\n");
+		for (int c = 0; c < numComponents; c++) {
+			String className = "bench.Component" + c;
+			sb.append("        c").append(c).append(" = new ")
+					.append(className).append(";\n");
+			sb.append("        specialinvoke c").append(c).append(".<")
+					.append(className).append(": void <init>()>();\n");
+			for (int cb = 0; cb < numCallbacks; cb++)
+				sb.append("        virtualinvoke c").append(c).append(".<")
+						.append(className).append(": void onCallback")
+						.append(cb).append("(android.content.Intent)>(i0);\n");
+		}
+		sb.append("        return;\n    }\n}\n");
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return numComponents + "x" + numCallbacks + " components, "
+				+ numIntentSends + " sends, chain " + chainLength;
+	}
+
+}
@@ -0,0 +1,203 @@
+package soot.jimple.infoflow;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import soot.Body;
+import soot.BooleanType;
+import soot.G;
+import soot.Local;
+import soot.Modifier;
+import soot.RefType;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.Type;
+import soot.VoidType;
+import soot.jimple.IntConstant;
+import soot.jimple.Jimple;
+import soot.jimple.JimpleBody;
+import soot.jimple.NopStmt;
+import soot.jimple.StringConstant;
+import soot.options.Options;
+
+/**
+ * Builds a minimal Soot scene with stubs of the Android classes used by the
+ * intent analyses, and synthetic Jimple bodies on top of it. The bodies
+ * consist of a number of branches on intent properties with straight-line
+ * filler code in between, which is what the boolean expression tagger spends
+ * its time on.
+ */
+public class SyntheticScene {
+
+	public static final String INTENT = "android.content.Intent";
+	public static final String CONTEXT = "android.content.Context";
+	public static final String ACTIVITY = "android.app.Activity";
+
+	private final SootClass intentClass;
+	private final SootClass stringClass;
+	private final SootClass activityClass;
+	private final SootClass appClass;
+
+	private int methodCounter = 0;
+
+	/**
+	 * Resets Soot and creates the stub classes
+	 */
+	public SyntheticScene() {
+		G.reset();
+		StatementClassifier.reset();
+		Options.v().set_allow_phantom_refs(true);
+		Options.v().set_whole_program(true);
+
+		SootClass objectClass = addClass("java.lang.Object", null);
+		stringClass = addClass("java.lang.String", objectClass);
+		addMethod(stringClass, "equals",
+				Collections.<Type> singletonList(objectClass.getType()),
+				BooleanType.v());
+
+		intentClass = addClass(INTENT, objectClass);
+		addMethod(intentClass, "getAction", Collections.<Type> emptyList(),
+				stringClass.getType());
+		List<Type> putExtraParams = new ArrayList<Type>();
+		putExtraParams.add(stringClass.getType());
+		putExtraParams.add(stringClass.getType());
+		addMethod(intentClass, "putExtra", putExtraParams,
+				intentClass.getType());
+
+		SootClass contextClass = addClass(CONTEXT, objectClass);
+		activityClass = addClass(ACTIVITY, contextClass);
+		addMethod(activityClass, "startActivity",
+				Collections.<Type> singletonList(intentClass.getType()),
+				VoidType.v());
+
+		appClass = addClass("bench.SyntheticActivity", activityClass);
+		appClass.setApplicationClass();
+	}
+
+	private static SootClass addClass(String name, SootClass superClass) {
+		SootClass sc = new SootClass(name, Modifier.PUBLIC);
+		if (superClass != null)
+			sc.setSuperclass(superClass);
+		Scene.v().addClass(sc);
+		sc.setLibraryClass();
+		return sc;
+	}
+
+	private static SootMethod addMethod(SootClass sc, String name,
+			List<Type> params, Type returnType) {
+		SootMethod sm = new SootMethod(name, params, returnType,
+				Modifier.PUBLIC);
+		sc.addMethod(sm);
+		sm.setPhantom(false);
+		return sm;
+	}
+
+	public SootClass getActivityClass() {
+		return activityClass;
+	}
+
+	public SootClass getIntentClass() {
+		return intentClass;
+	}
+
+	/**
+	 * Creates the body of a new method in the synthetic application class.
+	 * The body reads the action of its intent parameter once per branch,
+	 * compares it with a constant, and skips the filler code of the branch if
+	 * the comparison fails.
+	 *
+	 * @param branches
+	 *            The number of branches on intent properties
+	 * @param size
+	 *            The total number of filler statements, spread evenly over
+	 *            the branches
+	 * @return The new body
+	 */
+	public Body createBody(int branches, int size) {
+		Jimple j = Jimple.v();
+		SootMethod sm = new SootMethod("run" + methodCounter++,
+				Collections.<Type> singletonList(intentClass.getType()),
+				VoidType.v(), Modifier.PUBLIC);
+		appClass.addMethod(sm);
+		JimpleBody body = j.newBody(sm);
+		sm.setActiveBody(body);
+
+		Local intent = j.newLocal("r0", intentClass.getType());
+		body.getLocals().add(intent);
+		body.getUnits().add(
+				j.newIdentityStmt(intent,
+						j.newParameterRef(intentClass.getType(), 0)));
+
+		RefType string = stringClass.getType();
+		int fillerPerBranch = Math.max(1, size / Math.max(1, branches));
+		for (int b = 0; b < branches; b++) {
+			Local action = j.newLocal("a" + b, string);
+			Local cmp = j.newLocal("z" + b, BooleanType.v());
+			body.getLocals().add(action);
+			body.getLocals().add(cmp);
+
+			body.getUnits().add(
+					j.newAssignStmt(action, j.newVirtualInvokeExpr(intent,
+							intentClass.getMethodByName("getAction")
+									.makeRef())));
+			body.getUnits().add(
+					j.newAssignStmt(cmp, j.newVirtualInvokeExpr(action,
+							stringClass.getMethodByName("equals").makeRef(),
+							StringConstant.v("ACTION_" + b))));
+
+			NopStmt join = j.newNopStmt();
+			body.getUnits().add(
+					j.newIfStmt(j.newEqExpr(cmp, IntConstant.v(0)), join));
+			for (int f = 0; f < fillerPerBranch; f++) {
+				Local filler = j.newLocal("s" + b + "_" + f, string);
+				body.getLocals().add(filler);
+				body.getUnits().add(
+						j.newAssignStmt(filler, StringConstant.v("c" + f)));
+			}
+			body.getUnits().add(join);
+		}
+		body.getUnits().add(j.newReturnVoidStmt());
+		return body;
+	}
+
+	/**
+	 * Creates the body of a new method in the synthetic application class
+	 * that puts an extra into its intent parameter and then starts an
+	 * activity with it
+	 *
+	 * @return The new body. Its third unit is the putExtra call, the fourth
+	 *         the startActivity call.
+	 */
+	public Body createIntentSinkBody() {
+		Jimple j = Jimple.v();
+		SootMethod sm = new SootMethod("send" + methodCounter++,
+				Collections.<Type> singletonList(intentClass.getType()),
+				VoidType.v(), Modifier.PUBLIC);
+		appClass.addMethod(sm);
+		JimpleBody body = j.newBody(sm);
+		sm.setActiveBody(body);
+
+		Local activity = j.newLocal("r0", appClass.getType());
+		Local intent = j.newLocal("r1", intentClass.getType());
+		body.getLocals().add(activity);
+		body.getLocals().add(intent);
+		body.getUnits().add(
+				j.newIdentityStmt(activity, j.newThisRef(appClass.getType())));
+		body.getUnits().add(
+				j.newIdentityStmt(intent,
+						j.newParameterRef(intentClass.getType(), 0)));
+		body.getUnits().add(
+				j.newInvokeStmt(j.newVirtualInvokeExpr(intent, intentClass
+						.getMethodByName("putExtra").makeRef(), StringConstant
+						.v("key"), StringConstant.v("value"))));
+		body.getUnits().add(
+				j.newInvokeStmt(j.newVirtualInvokeExpr(activity,
+						activityClass.getMethodByName("startActivity")
+								.makeRef(), intent)));
+		body.getUnits().add(j.newReturnVoidStmt());
+		return body;
+	}
+
+}
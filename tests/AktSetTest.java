@@ -0,0 +1,112 @@
+package soot.jimple.infoflow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import soot.IntType;
+import soot.Local;
+import soot.jimple.StringConstant;
+import soot.jimple.internal.JimpleLocal;
+
+/**
+ * Checks the join and the structural equality of {@link AktSet}
+ */
+public class AktSetTest {
+
+	private AktBodyIndex index;
+	private Local l0;
+	private Local l1;
+	private Condition a;
+	private Condition b;
+
+	@Before
+	public void setUp() {
+		Condition.reset();
+		index = new AktBodyIndex();
+		l0 = local("l0", 0);
+		l1 = local("l1", 1);
+		a = Condition.atom("action", "VIEW", "true").literal(true)
+				.toCondition();
+		b = Condition.atom("action", "EDIT", "true").literal(true)
+				.toCondition();
+	}
+
+	private static Local local(String name, int number) {
+		Local l = new JimpleLocal(name, IntType.v());
+		l.setNumber(number);
+		return l;
+	}
+
+	@Test
+	public void mergeJoinsTablesAndConditions() {
+		AktSet left = new AktSet(index);
+		left.addIntentProperty(l0, "getAction");
+		left.setCondition(a);
+		AktSet right = new AktSet(index);
+		right.addStringConstant(l1, StringConstant.v("VIEW"));
+		right.setCondition(b);
+
+		AktSet out = new AktSet(index);
+		left.merge(right, out);
+		assertEquals("getAction", out.getIntentProperty(l0));
+		assertEquals(StringConstant.v("VIEW"), out.getStringConstant(l1));
+		assertSame(a.or(b), out.getCondition());
+	}
+
+	@Test
+	public void mergeWithCopyIsIdentity() {
+		AktSet set = new AktSet(index);
+		set.addIntentProperty(l0, "getAction");
+		set.setCondition(a);
+		AktSet copy = new AktSet(index);
+		set.copy(copy);
+
+		AktSet out = new AktSet(index);
+		set.merge(copy, out);
+		assertEquals(set, out);
+		assertEquals(set.hashCode(), out.hashCode());
+	}
+
+	@Test
+	public void equalityIgnoresInsertionOrder() {
+		AktSet first = new AktSet(index);
+		first.addIntentProperty(l0, "getAction");
+		first.addIntentProperty(l1, "getData");
+		AktSet second = new AktSet(index);
+		second.addIntentProperty(l1, "getData");
+		second.addIntentProperty(l0, "getAction");
+		assertEquals(first, second);
+		assertEquals(first.hashCode(), second.hashCode());
+	}
+
+	@Test
+	public void conditionIsPartOfEquality() {
+		AktSet first = new AktSet(index);
+		AktSet second = new AktSet(index);
+		assertEquals(first, second);
+		second.setCondition(a);
+		assertFalse(first.equals(second));
+		first.setCondition(a);
+		assertEquals(first, second);
+	}
+
+	@Test
+	public void updatesInvalidateTheHash() {
+		AktSet set = new AktSet(index);
+		AktSet copy = new AktSet(index);
+		set.copy(copy);
+		// Caches the hash before the updates
+		set.hashCode();
+		set.addIntentProperty(l0, "getAction");
+		assertFalse(set.equals(copy));
+
+		set.removeKeys(new int[] { index.lookupKey(l0) });
+		assertEquals(copy, set);
+		assertEquals(copy.hashCode(), set.hashCode());
+	}
+
+}
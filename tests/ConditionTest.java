@@ -0,0 +1,112 @@
+package soot.jimple.infoflow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import soot.jimple.infoflow.Condition.Atom;
+import soot.jimple.infoflow.Condition.Literal;
+
+/**
+ * Checks that equivalent conditions are the same object and that their
+ * textual form does not depend on the creation order of the atoms
+ */
+public class ConditionTest {
+
+	private Condition a;
+	private Condition b;
+	private Condition c;
+
+	@Before
+	public void setUp() {
+		Condition.reset();
+		a = lit("action", "VIEW", true);
+		b = lit("action", "EDIT", true);
+		c = lit("data", "x", true);
+	}
+
+	private static Condition lit(String property, String constant,
+			boolean positive) {
+		return Condition.atom(property, constant, "true").literal(positive)
+				.toCondition();
+	}
+
+	@Test
+	public void atomsAreInterned() {
+		assertSame(Condition.atom("action", "VIEW", "true"),
+				Condition.atom("action", "VIEW", "true"));
+	}
+
+	@Test
+	public void operationsAreCanonical() {
+		assertSame(a.and(b), b.and(a));
+		assertSame(a.or(b), b.or(a));
+		assertSame(a.and(b).and(c), a.and(b.and(c)));
+		assertSame(a, a.or(b).and(a));
+		assertSame(a, a.and(b).or(a));
+		assertSame(a.and(b).not(), a.not().or(b.not()));
+		assertSame(a, a.not().not());
+	}
+
+	@Test
+	public void complementsReduceToTerminals() {
+		assertTrue(a.and(a.not()).isFalse());
+		assertTrue(a.or(a.not()).isTrue());
+		assertSame(Condition.TRUE, Condition.FALSE.not());
+		assertSame(a, a.and(Condition.TRUE));
+		assertSame(a, a.or(Condition.FALSE));
+	}
+
+	@Test
+	public void dnfOfTerminals() {
+		assertEquals(1, Condition.TRUE.toDNF().size());
+		assertTrue(Condition.TRUE.toDNF().get(0).isEmpty());
+		assertTrue(Condition.FALSE.toDNF().isEmpty());
+		assertEquals("true", Condition.TRUE.toString());
+		assertEquals("false", Condition.FALSE.toString());
+	}
+
+	@Test
+	public void dnfOfConjunction() {
+		List<List<Literal>> dnf = a.and(c.not()).toDNF();
+		assertEquals(1, dnf.size());
+		assertEquals(2, dnf.get(0).size());
+		assertEquals("E(action, VIEW) == true AND E(data, x) != true", a
+				.and(c.not()).toString());
+	}
+
+	@Test
+	public void renderingIgnoresAtomCreationOrder() {
+		String first = build(false).toString();
+		Condition.reset();
+		String second = build(true).toString();
+		assertEquals(first, second);
+	}
+
+	private static Condition build(boolean reversed) {
+		String[] props = { "pa", "pb", "pc" };
+		Atom[] atoms = new Atom[props.length];
+		for (int i = 0; i < props.length; i++) {
+			int j = reversed ? props.length - 1 - i : i;
+			atoms[j] = Condition.atom(props[j], "k", "true");
+		}
+		return atoms[0].literal(true).toCondition()
+				.and(atoms[1].literal(false))
+				.or(atoms[2].literal(true).toCondition()
+						.and(atoms[0].literal(false)));
+	}
+
+	@Test
+	public void resetDropsInternedAtoms() {
+		Atom before = Condition.atom("action", "VIEW", "true");
+		Condition.reset();
+		assertFalse(before == Condition.atom("action", "VIEW", "true"));
+	}
+
+}
@@ -0,0 +1,90 @@
+package soot.jimple.infoflow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that maps with the same entries are equal no matter in which order
+ * the entries were added and removed
+ */
+public class PersistentIntMapTest {
+
+	private static PersistentIntMap<String> of(int... keys) {
+		PersistentIntMap<String> map = PersistentIntMap.empty();
+		for (int key : keys)
+			map = map.plus(key, "v" + key);
+		return map;
+	}
+
+	@Test
+	public void minusFoldsCollidingChild() {
+		// 1 and 33 share the first trie level
+		PersistentIntMap<String> map = of(1, 33).minus(33);
+		assertEquals(of(1), map);
+		assertEquals(of(1).hashCode(), map.hashCode());
+		assertEquals(1, map.size());
+	}
+
+	@Test
+	public void minusFoldsNestedChildren() {
+		// 1, 33 and 1025 share the first level, 1 and 1025 also the second
+		PersistentIntMap<String> map = of(1, 33, 1025);
+		assertEquals(of(1, 33), map.minus(1025));
+		assertEquals(of(1, 1025), map.minus(33));
+		assertEquals(of(33), map.minus(1).minus(1025));
+		assertTrue(map.minus(1).minus(33).minus(1025).isEmpty());
+	}
+
+	@Test
+	public void minusOfMissingKeyKeepsMap() {
+		PersistentIntMap<String> map = of(1, 33);
+		assertTrue(map == map.minus(65));
+	}
+
+	@Test
+	public void differentValuesAreNotEqual() {
+		PersistentIntMap<String> map = of(1, 33);
+		assertFalse(map.equals(map.plus(33, "other")));
+	}
+
+	@Test
+	public void randomRoundTrips() {
+		Random rnd = new Random(42);
+		for (int round = 0; round < 200; round++) {
+			Map<Integer, String> expected = new HashMap<Integer, String>();
+			PersistentIntMap<String> map = PersistentIntMap.empty();
+			for (int op = 0; op < 100; op++) {
+				// Few distinct low bits, so that many keys collide
+				int key = rnd.nextInt(8) | (rnd.nextInt(8) << 5)
+						| (rnd.nextInt(4) << 10);
+				if (rnd.nextBoolean()) {
+					expected.put(key, "v" + key);
+					map = map.plus(key, "v" + key);
+				} else {
+					expected.remove(key);
+					map = map.minus(key);
+				}
+			}
+
+			List<Integer> keys = new ArrayList<Integer>(expected.keySet());
+			PersistentIntMap<String> fresh = PersistentIntMap.empty();
+			for (int key : keys)
+				fresh = fresh.plus(key, expected.get(key));
+
+			assertEquals(expected.size(), map.size());
+			assertEquals(fresh.hashCode(), map.hashCode());
+			assertEquals(fresh, map);
+			assertEquals(map, fresh);
+		}
+	}
+
+}